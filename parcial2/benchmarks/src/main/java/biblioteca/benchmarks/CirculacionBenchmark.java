@@ -0,0 +1,52 @@
+package biblioteca.benchmarks;
+
+import biblioteca.servicios.BibliotecaService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Préstamo y devolución según el tamaño del catálogo. Cada operación presta un libro al azar y
+// lo devuelve, así el catálogo no se agota; el servicio se recrea en cada iteración para que
+// el historial de devoluciones no crezca sin límite.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CirculacionBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int libros;
+
+    private BibliotecaService servicio;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Iteration)
+    public void preparar() {
+        Silencio.activar();
+        servicio = new BibliotecaService();
+        servicio.cargarLibrosDisponibles(GeneradorDatos.libros(libros, 1, 42));
+    }
+
+    @TearDown(Level.Trial)
+    public void restaurar() {
+        Silencio.desactivar();
+    }
+
+    @Benchmark
+    public boolean prestarYDevolverPorId() {
+        int id = 1 + random.nextInt(libros);
+        servicio.prestarLibro(id, "usuario" + (id & 1023));
+        return servicio.devolverLibro(id);
+    }
+
+    // Devolución sin ID: sale el préstamo que vence primero
+    @Benchmark
+    public boolean prestarYDevolverMasAntiguo() {
+        int id = 1 + random.nextInt(libros);
+        servicio.prestarLibro(id, "usuario" + (id & 1023));
+        return servicio.devolverLibro();
+    }
+}
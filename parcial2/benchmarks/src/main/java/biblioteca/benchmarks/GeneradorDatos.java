@@ -0,0 +1,97 @@
+package biblioteca.benchmarks;
+
+import biblioteca.entidades.Libro;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Genera libros sintéticos y archivos con el formato de Compras.txt / Solicitudes.txt
+// (encabezado, separador ';', fin de línea CRLF). Con la misma semilla el resultado es el mismo.
+public class GeneradorDatos {
+    public static final String ENCABEZADO = "ID;Título;Autor;Género;Fecha de publicación;Editorial;Precio";
+
+    private static final String[] PALABRAS = {
+            "cien", "años", "soledad", "río", "noche", "ciudad", "camino", "canción", "corazón", "jardín",
+            "sombra", "mar", "invierno", "memoria", "viento", "espejo", "isla", "árbol", "fuego", "luna",
+            "tiempo", "perdido", "último", "nombre", "rosa", "guerra", "paz", "niño", "casa", "silencio"
+    };
+    private static final String[] AUTORES = {
+            "Gabriel García Márquez", "Isabel Allende", "Jorge Luis Borges", "Julio Cortázar", "Pablo Neruda",
+            "Mario Vargas Llosa", "Octavio Paz", "Laura Esquivel", "Carlos Fuentes", "Elena Poniatowska"
+    };
+    private static final String[] GENEROS = {
+            "Novela", "Poesía", "Ensayo", "Cuento", "Fantasía", "Ciencia ficción", "Historia", "Biografía"
+    };
+    private static final String[] EDITORIALES = {
+            "Sudamericana", "Alfaguara", "Anagrama", "Planeta", "Seix Barral", "Tusquets", "Siruela"
+    };
+
+    // Uso: GeneradorDatos <archivo> <filas> [primerId] [semilla]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: GeneradorDatos <archivo> <filas> [primerId] [semilla]");
+            System.exit(1);
+        }
+        Path ruta = Path.of(args[0]);
+        int filas = Integer.parseInt(args[1]);
+        int primerId = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        long semilla = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        escribir(ruta, libros(filas, primerId, semilla));
+        System.out.printf("Se generaron %d libros en '%s'.%n", filas, ruta.toAbsolutePath());
+    }
+
+    public static List<Libro> libros(int cantidad, int primerId, long semilla) {
+        Random random = new Random(semilla);
+        List<Libro> libros = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            int id = primerId + i;
+            libros.add(new Libro(id, titulo(random, id), elegir(random, AUTORES), elegir(random, GENEROS),
+                    LocalDate.ofEpochDay(-25_000 + random.nextInt(45_000)), elegir(random, EDITORIALES),
+                    BigDecimal.valueOf(500 + random.nextInt(4_500), 2)));
+        }
+        return libros;
+    }
+
+    // Variante del título con otras mayúsculas, sin tildes y con puntuación: debe detectarse como duplicada
+    public static String variante(String titulo) {
+        return titulo.toUpperCase().replace('Á', 'A').replace('É', 'E').replace('Í', 'I')
+                .replace('Ó', 'O').replace('Ú', 'U').replace('Ñ', 'N') + ".";
+    }
+
+    public static void escribir(Path ruta, List<? extends Libro> libros) throws IOException {
+        if (ruta.getParent() != null) Files.createDirectories(ruta.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8)) {
+            writer.write(ENCABEZADO);
+            writer.write("\r\n");
+            for (Libro libro : libros) {
+                writer.write(libro.getId() + ";" + libro.getTitulo() + ";" + libro.getAutor() + ";" + libro.getGenero() + ";"
+                        + libro.getFechaPublicacion() + ";" + libro.getEditorial() + ";" + libro.getPrecio().toPlainString());
+                writer.write("\r\n");
+            }
+        }
+    }
+
+    // El ID al final garantiza títulos distintos entre sí
+    private static String titulo(Random random, int id) {
+        StringBuilder sb = new StringBuilder();
+        int palabras = 2 + random.nextInt(4);
+        for (int i = 0; i < palabras; i++) {
+            String palabra = elegir(random, PALABRAS);
+            if (i == 0) palabra = Character.toUpperCase(palabra.charAt(0)) + palabra.substring(1);
+            sb.append(palabra).append(' ');
+        }
+        return sb.append(id).toString();
+    }
+
+    private static String elegir(Random random, String[] opciones) {
+        return opciones[random.nextInt(opciones.length)];
+    }
+}
@@ -0,0 +1,77 @@
+package biblioteca.benchmarks;
+
+import biblioteca.entidades.Libro;
+import biblioteca.entidades.SolicitudLibro;
+import biblioteca.servicios.AlmacenColumnar;
+import biblioteca.servicios.CatalogoParticionado;
+import biblioteca.servicios.LibroCompacto;
+import biblioteca.servicios.ValidadorExistencias;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+
+// Lectura completa de Compras.txt / Solicitudes.txt según el tamaño del archivo
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LecturaArchivosBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int filas;
+
+    private Path carpeta;
+    private Path rutaCompras;
+    private Path rutaSolicitudes;
+    private CatalogoParticionado particion;
+    private final ValidadorExistencias validador = new ValidadorExistencias();
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        carpeta = Files.createTempDirectory("bench-lectura");
+        rutaCompras = carpeta.resolve("Compras.txt");
+        rutaSolicitudes = carpeta.resolve("Solicitudes.txt");
+        GeneradorDatos.escribir(rutaCompras, GeneradorDatos.libros(filas, 1, 42));
+        GeneradorDatos.escribir(rutaSolicitudes, GeneradorDatos.libros(filas, filas + 1, 7));
+        particion = CatalogoParticionado.abrirOCrear(carpeta.resolve("Compras"), CatalogoParticionado.Criterio.GENERO, rutaCompras);
+    }
+
+    @TearDown(Level.Trial)
+    public void limpiar() throws IOException {
+        try (Stream<Path> rutas = Files.walk(carpeta)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Libro> cargarCompras() throws IOException {
+        return validador.cargarCompras(rutaCompras);
+    }
+
+    // Modo compacto: las compras van directamente a las columnas de un almacén nuevo
+    @Benchmark
+    public List<LibroCompacto> cargarComprasCompactas() throws IOException {
+        return validador.cargarComprasCompactas(rutaCompras, new AlmacenColumnar());
+    }
+
+    // Las mismas compras repartidas por género y leídas en paralelo (fork-join)
+    @Benchmark
+    public List<Libro> cargarComprasParticionadas() throws IOException {
+        return validador.cargarComprasParticionadas(particion);
+    }
+
+    @Benchmark
+    public List<SolicitudLibro> cargarSolicitudes() throws IOException {
+        return validador.cargarSolicitudes(rutaSolicitudes);
+    }
+}
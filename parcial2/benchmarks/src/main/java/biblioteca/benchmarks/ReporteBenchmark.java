@@ -0,0 +1,59 @@
+package biblioteca.benchmarks;
+
+import biblioteca.servicios.BibliotecaService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Reporte completo de préstamos: la mitad devueltos (historial) y la mitad activos
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReporteBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int prestamos;
+
+    @Param({"false", "true"})
+    public boolean comprimido;
+
+    private BibliotecaService servicio;
+    private Path carpetaSalida;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        Silencio.activar();
+        carpetaSalida = Files.createTempDirectory("bench-reporte");
+        servicio = new BibliotecaService();
+        servicio.cargarLibrosDisponibles(GeneradorDatos.libros(prestamos, 1, 42));
+        for (int id = 1; id <= prestamos; id++) {
+            servicio.prestarLibro(id, "usuario" + (id % 1000));
+        }
+        for (int id = 1; id <= prestamos; id += 2) {
+            servicio.devolverLibro(id);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void limpiar() throws IOException {
+        Silencio.desactivar();
+        try (Stream<Path> archivos = Files.walk(carpetaSalida)) {
+            for (Path ruta : archivos.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(ruta);
+            }
+        }
+    }
+
+    @Benchmark
+    public void generarReporteDePrestamos() throws IOException {
+        servicio.generarReporteDePrestamos(carpetaSalida, false, comprimido);
+    }
+}
@@ -0,0 +1,24 @@
+package biblioteca.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+// Los servicios informan cada operación por consola; durante la medición esa salida se descarta
+final class Silencio {
+    private static PrintStream original;
+
+    private Silencio() {
+    }
+
+    static synchronized void activar() {
+        if (original != null) return;
+        original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static synchronized void desactivar() {
+        if (original == null) return;
+        System.setOut(original);
+        original = null;
+    }
+}
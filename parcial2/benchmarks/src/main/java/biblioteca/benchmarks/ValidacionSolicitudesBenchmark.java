@@ -0,0 +1,65 @@
+package biblioteca.benchmarks;
+
+import biblioteca.entidades.Libro;
+import biblioteca.entidades.SolicitudLibro;
+import biblioteca.servicios.ValidacionLote;
+import biblioteca.servicios.ValidadorExistencias;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Validación de un lote de solicitudes contra catálogos de compras de distinto tamaño.
+// La mitad del lote son duplicados (mismo título con otras mayúsculas, sin tildes y con puntuación).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidacionSolicitudesBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int compras;
+
+    @Param({"1000"})
+    public int solicitudes;
+
+    private List<Libro> librosComprados;
+    private List<SolicitudLibro> lote;
+    private final ValidadorExistencias validador = new ValidadorExistencias();
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        librosComprados = GeneradorDatos.libros(compras, 1, 42);
+        lote = new ArrayList<>(solicitudes);
+        List<Libro> nuevos = GeneradorDatos.libros(solicitudes, compras + 1, 7);
+        for (int i = 0; i < solicitudes; i++) {
+            Libro base = nuevos.get(i);
+            String titulo = base.getTitulo();
+            if (i % 2 == 0) {
+                titulo = GeneradorDatos.variante(librosComprados.get((i * 7919) % compras).getTitulo());
+            }
+            lote.add(new SolicitudLibro(base.getId(), titulo, base.getAutor(), base.getGenero(),
+                    base.getFechaPublicacion(), base.getEditorial(), base.getPrecio()));
+        }
+        Silencio.activar();
+    }
+
+    @TearDown(Level.Trial)
+    public void restaurar() {
+        Silencio.desactivar();
+    }
+
+    @Benchmark
+    public List<SolicitudLibro> obtenerSolicitudesValidas() {
+        return validador.obtenerSolicitudesValidas(lote, librosComprados);
+    }
+
+    // Resultado estructurado, sin mensajes por solicitud
+    @Benchmark
+    public ValidacionLote validarLote() {
+        return validador.validarLote(lote, librosComprados);
+    }
+}
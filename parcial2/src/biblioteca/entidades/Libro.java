@@ -2,6 +2,7 @@ package biblioteca.entidades;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.text.Normalizer;
 import java.time.format.DateTimeFormatter;
 
 public class Libro {
@@ -12,20 +13,45 @@ public class Libro {
     protected LocalDate fechaPublicacion;
     protected String editorial;
     protected BigDecimal precio;
+    // Ejemplares comprados o solicitados de este título (columna opcional en los archivos)
+    protected int ejemplares = 1;
+
+    // Clave de comparación del título; se calcula una sola vez por libro
+    private String tituloNormalizado;
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     public Libro(int id, String titulo, String autor, String genero, String fechaPublicacion, String editorial, BigDecimal precio) {
+        // Se mantiene el parseo de la fecha en el constructor
+        this(id, titulo, autor, genero, LocalDate.parse(fechaPublicacion, DATE_FORMATTER), editorial, precio);
+    }
+
+    public Libro(int id, String titulo, String autor, String genero, String fechaPublicacion, String editorial, BigDecimal precio, int ejemplares) {
+        this(id, titulo, autor, genero, LocalDate.parse(fechaPublicacion, DATE_FORMATTER), editorial, precio, ejemplares);
+    }
+
+    // Para lectores que ya obtienen la fecha parseada
+    public Libro(int id, String titulo, String autor, String genero, LocalDate fechaPublicacion, String editorial, BigDecimal precio) {
         this.id = id;
         this.titulo = titulo;
         this.autor = autor;
         this.genero = genero;
-        // Se mantiene el parseo de la fecha en el constructor
-        this.fechaPublicacion = LocalDate.parse(fechaPublicacion, DATE_FORMATTER);
+        this.fechaPublicacion = fechaPublicacion;
         this.editorial = editorial;
         this.precio = precio;
     }
 
+    public Libro(int id, String titulo, String autor, String genero, LocalDate fechaPublicacion, String editorial, BigDecimal precio, int ejemplares) {
+        this(id, titulo, autor, genero, fechaPublicacion, editorial, precio);
+        if (ejemplares < 1) throw new IllegalArgumentException("La cantidad de ejemplares debe ser al menos 1: " + ejemplares);
+        this.ejemplares = ejemplares;
+    }
+
+    // Para vistas que leen sus datos de otra parte (ver servicios.LibroCompacto): redefinen los getters
+    protected Libro(int id) {
+        this.id = id;
+    }
+
     // --- GETTERS PARA TODAS LAS PROPIEDADES (AQUÍ LA CORRECCIÓN) ---
     public int getId() { return id; }
     public String getTitulo() { return titulo; }
@@ -34,9 +60,61 @@ public class Libro {
     public LocalDate getFechaPublicacion() { return fechaPublicacion; }
     public String getEditorial() { return editorial; }
     public BigDecimal getPrecio() { return precio; }
+    public int getEjemplares() { return ejemplares; }
+
+    public String getTituloNormalizado() {
+        String clave = tituloNormalizado;
+        if (clave == null) {
+            clave = normalizarTitulo(getTitulo());
+            tituloNormalizado = clave;
+        }
+        return clave;
+    }
+
+    // Minúsculas, sin acentos ni diacríticos, y con signos de puntuación y espacios
+    // repetidos reducidos a un único espacio: "Cien Años de Soledad " -> "cien anos de soledad"
+    public static String normalizarTitulo(String titulo) {
+        if (titulo == null) return "";
+        String texto = esAscii(titulo) ? titulo : Normalizer.normalize(titulo, Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder(texto.length());
+        boolean espacioPendiente = false;
+        for (int i = 0; i < texto.length(); ) {
+            int c = texto.codePointAt(i);
+            i += Character.charCount(c);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(c)) {
+                if (espacioPendiente && sb.length() > 0) sb.append(' ');
+                espacioPendiente = false;
+                sb.appendCodePoint(Character.toLowerCase(c));
+            } else {
+                espacioPendiente = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean esAscii(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            if (texto.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    // La identidad de un libro es su ID de catálogo
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Libro)) return false;
+        return id == ((Libro) o).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
 
     @Override
     public String toString() {
-        return String.format("ID: %d, Título: %s, Autor: %s", id, titulo, autor);
+        return String.format("ID: %d, Título: %s, Autor: %s", getId(), getTitulo(), getAutor());
     }
 }
\ No newline at end of file
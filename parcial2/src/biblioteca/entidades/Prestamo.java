@@ -2,7 +2,6 @@ package biblioteca.entidades;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 
 public class Prestamo {
     private final Libro libro;
@@ -10,32 +9,50 @@ public class Prestamo {
     private final LocalDate fechaPrestamo;
     private LocalDate fechaDevolucion;
 
+    // Días de retraso y multa (en centavos) se calculan una vez al registrar la devolución
+    private long diasRetraso;
+    private long multaCentavos;
+
     // Constantes para el cálculo de la multa
-    private static final int DIAS_PRESTAMO_ESTANDAR = 15;
-    private static final BigDecimal MULTA_POR_DIA = new BigDecimal("0.75");
+    public static final int DIAS_PRESTAMO_ESTANDAR = 15;
+    public static final long MULTA_POR_DIA_CENTAVOS = 75; // $0.75
 
     public Prestamo(Libro libro, String usuarioId) {
+        this(libro, usuarioId, LocalDate.now());
+    }
+
+    // Para reconstruir préstamos con su fecha original (p. ej. al reproducir el diario)
+    public Prestamo(Libro libro, String usuarioId, LocalDate fechaPrestamo) {
         this.libro = libro;
         this.usuarioId = usuarioId;
-        this.fechaPrestamo = LocalDate.now();
+        this.fechaPrestamo = fechaPrestamo;
     }
 
     public void registrarDevolucion() {
-        this.fechaDevolucion = LocalDate.now();
+        registrarDevolucion(LocalDate.now());
     }
 
-    public long getDiasRetraso() {
-        if (fechaDevolucion == null) return 0; // Aún no se ha devuelto
+    public void registrarDevolucion(LocalDate fechaDevolucion) {
+        this.fechaDevolucion = fechaDevolucion;
+        this.diasRetraso = calcularDiasRetraso(fechaPrestamo.toEpochDay(), fechaDevolucion.toEpochDay());
+        this.multaCentavos = diasRetraso * MULTA_POR_DIA_CENTAVOS;
+    }
 
-        long diasTranscurridos = ChronoUnit.DAYS.between(fechaPrestamo, fechaDevolucion);
-        long diasRetraso = diasTranscurridos - DIAS_PRESTAMO_ESTANDAR;
+    // Retorna 0 si no hay retraso
+    public static long calcularDiasRetraso(long diaPrestamo, long diaDevolucion) {
+        return Math.max(0, diaDevolucion - diaPrestamo - DIAS_PRESTAMO_ESTANDAR);
+    }
+
+    public long getDiasRetraso() {
+        return diasRetraso; // 0 si aún no se ha devuelto
+    }
 
-        return Math.max(0, diasRetraso); // Retorna 0 si no hay retraso
+    public long getMultaCentavos() {
+        return multaCentavos;
     }
 
     public BigDecimal getMulta() {
-        long diasRetraso = getDiasRetraso();
-        return MULTA_POR_DIA.multiply(new BigDecimal(diasRetraso));
+        return BigDecimal.valueOf(multaCentavos, 2);
     }
 
     // Getters para el reporte
@@ -43,4 +60,5 @@ public class Prestamo {
     public String getUsuarioId() { return usuarioId; }
     public LocalDate getFechaPrestamo() { return fechaPrestamo; }
     public LocalDate getFechaDevolucion() { return fechaDevolucion; }
+    public LocalDate getFechaVencimiento() { return fechaPrestamo.plusDays(DIAS_PRESTAMO_ESTANDAR); }
 }
\ No newline at end of file
@@ -1,9 +1,22 @@
 package biblioteca.entidades;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 
 public class SolicitudLibro extends Libro {
     public SolicitudLibro(int id, String titulo, String autor, String genero, String fechaPublicacion, String editorial, BigDecimal precio) {
         super(id, titulo, autor, genero, fechaPublicacion, editorial, precio);
     }
+
+    public SolicitudLibro(int id, String titulo, String autor, String genero, LocalDate fechaPublicacion, String editorial, BigDecimal precio) {
+        super(id, titulo, autor, genero, fechaPublicacion, editorial, precio);
+    }
+
+    public SolicitudLibro(int id, String titulo, String autor, String genero, String fechaPublicacion, String editorial, BigDecimal precio, int ejemplares) {
+        super(id, titulo, autor, genero, fechaPublicacion, editorial, precio, ejemplares);
+    }
+
+    public SolicitudLibro(int id, String titulo, String autor, String genero, LocalDate fechaPublicacion, String editorial, BigDecimal precio, int ejemplares) {
+        super(id, titulo, autor, genero, fechaPublicacion, editorial, precio, ejemplares);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package biblioteca.metricas;
+
+import jdk.jfr.*;
+
+import java.nio.file.Path;
+
+// Evento JFR alrededor de cada lectura o escritura de archivos de la biblioteca. Con la
+// grabación apagada, begin()/commit() no hacen nada. Para verlos:
+//   java -XX:StartFlightRecording=filename=biblioteca.jfr ...
+//   jfr print --events biblioteca.Archivo biblioteca.jfr
+@Name("biblioteca.Archivo")
+@Label("Archivo de la biblioteca")
+@Category({"Biblioteca", "E/S"})
+@StackTrace(false)
+public class EventoArchivo extends Event {
+
+    @Label("Operación")
+    public String operacion;
+
+    @Label("Ruta")
+    public String ruta;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Registros")
+    public long registros;
+
+    public static EventoArchivo iniciar(String operacion, Path ruta) {
+        EventoArchivo evento = new EventoArchivo();
+        if (evento.isEnabled()) {
+            evento.operacion = operacion;
+            evento.ruta = String.valueOf(ruta);
+            evento.begin();
+        }
+        return evento;
+    }
+
+    // Cierra el evento y suma los bytes a las métricas globales
+    public void terminar(long bytes, long registros, boolean escritura) {
+        MetricasBiblioteca metricas = MetricasBiblioteca.getInstancia();
+        if (escritura) {
+            metricas.sumarBytesEscritos(bytes);
+        } else {
+            metricas.sumarBytesLeidos(bytes);
+        }
+        if (shouldCommit()) {
+            this.bytes = bytes;
+            this.registros = registros;
+            commit();
+        }
+    }
+}
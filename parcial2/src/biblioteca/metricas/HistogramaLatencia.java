@@ -0,0 +1,94 @@
+package biblioteca.metricas;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histograma de latencias en nanosegundos con cubetas logarítmicas: cada potencia de dos se
+// divide en 4 subcubetas, así el error relativo de los percentiles queda por debajo del 25%.
+// Registrar solo incrementa contadores LongAdder, sin bloqueos ni asignaciones.
+public class HistogramaLatencia {
+    private static final int SUBCUBETAS_BITS = 2;
+    private static final int SUBCUBETAS = 1 << SUBCUBETAS_BITS;
+    private static final int CUBETAS = 64 * SUBCUBETAS;
+
+    private final LongAdder[] cubetas = new LongAdder[CUBETAS];
+    private final LongAdder cantidad = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    public HistogramaLatencia() {
+        for (int i = 0; i < CUBETAS; i++) {
+            cubetas[i] = new LongAdder();
+        }
+    }
+
+    public void registrar(long nanos) {
+        if (nanos < 0) nanos = 0;
+        cubetas[cubeta(nanos)].increment();
+        cantidad.increment();
+        suma.add(nanos);
+        maximo.accumulate(nanos);
+    }
+
+    public long getCantidad() {
+        return cantidad.sum();
+    }
+
+    public long getSumaNanos() {
+        return suma.sum();
+    }
+
+    public long getMaximoNanos() {
+        return maximo.get();
+    }
+
+    public double getPromedioNanos() {
+        long n = cantidad.sum();
+        return n == 0 ? 0 : (double) suma.sum() / n;
+    }
+
+    // Límite superior de la cubeta que contiene el percentil (0-100); 0 si no hay datos
+    public long percentilNanos(double percentil) {
+        long[] conteos = new long[CUBETAS];
+        long total = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            conteos[i] = cubetas[i].sum();
+            total += conteos[i];
+        }
+        if (total == 0) return 0;
+        long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += conteos[i];
+            if (acumulado >= objetivo) return Math.min(limiteSuperior(i), maximo.get());
+        }
+        return maximo.get();
+    }
+
+    public void reiniciar() {
+        for (LongAdder cubeta : cubetas) {
+            cubeta.reset();
+        }
+        cantidad.reset();
+        suma.reset();
+        maximo.reset();
+    }
+
+    // Valores menores que SUBCUBETAS van a su propia cubeta; el resto por exponente y 2 bits siguientes
+    static int cubeta(long valor) {
+        if (valor < SUBCUBETAS) return (int) valor;
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (exponente - SUBCUBETAS_BITS)) & (SUBCUBETAS - 1);
+        return (exponente - SUBCUBETAS_BITS + 1) * SUBCUBETAS + sub;
+    }
+
+    static long limiteSuperior(int cubeta) {
+        if (cubeta < SUBCUBETAS) return cubeta;
+        int exponente = cubeta / SUBCUBETAS + SUBCUBETAS_BITS - 1;
+        if (exponente >= 62) return Long.MAX_VALUE;
+        int sub = cubeta % SUBCUBETAS;
+        long base = 1L << exponente;
+        long ancho = base >>> SUBCUBETAS_BITS;
+        return base + (sub + 1) * ancho - 1;
+    }
+}
@@ -0,0 +1,120 @@
+package biblioteca.metricas;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Registro de latencias y contadores por operación. Medir cuesta dos System.nanoTime() y unos
+// incrementos de LongAdder, por lo que puede quedar activo siempre.
+//
+//   long inicio = metricas.iniciar();
+//   ... operación ...
+//   metricas.registrar(Operacion.PRESTAMO, inicio, exito);
+public class MetricasBiblioteca implements MetricasMXBean {
+    private static final MetricasBiblioteca INSTANCIA = new MetricasBiblioteca();
+    private static final String NOMBRE_JMX = "biblioteca:type=Metricas";
+
+    private final Map<Operacion, HistogramaLatencia> latencias = new EnumMap<>(Operacion.class);
+    private final Map<Operacion, LongAdder> fallos = new EnumMap<>(Operacion.class);
+    private final LongAdder bytesLeidos = new LongAdder();
+    private final LongAdder bytesEscritos = new LongAdder();
+
+    public MetricasBiblioteca() {
+        for (Operacion operacion : Operacion.values()) {
+            latencias.put(operacion, new HistogramaLatencia());
+            fallos.put(operacion, new LongAdder());
+        }
+    }
+
+    public static MetricasBiblioteca getInstancia() {
+        return INSTANCIA;
+    }
+
+    // Publica la instancia global en el servidor JMX de la plataforma (una sola vez)
+    public static void registrarEnJmx() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCIA, new ObjectName(NOMBRE_JMX));
+        } catch (InstanceAlreadyExistsException e) {
+            // Ya registrada
+        } catch (JMException e) {
+            System.err.println("No se pudieron publicar las métricas por JMX: " + e.getMessage());
+        }
+    }
+
+    public long iniciar() {
+        return System.nanoTime();
+    }
+
+    // Solo las operaciones exitosas alimentan el histograma; los fallos (rechazos, errores o
+    // nada que hacer) se cuentan aparte
+    public void registrar(Operacion operacion, long inicio, boolean exito) {
+        if (exito) {
+            latencias.get(operacion).registrar(System.nanoTime() - inicio);
+        } else {
+            fallos.get(operacion).increment();
+        }
+    }
+
+    public void sumarBytesLeidos(long bytes) {
+        bytesLeidos.add(bytes);
+    }
+
+    public void sumarBytesEscritos(long bytes) {
+        bytesEscritos.add(bytes);
+    }
+
+    public HistogramaLatencia getLatencias(Operacion operacion) {
+        return latencias.get(operacion);
+    }
+
+    public long getFallos(Operacion operacion) {
+        return fallos.get(operacion).sum();
+    }
+
+    public ResumenOperacion resumen(Operacion operacion) {
+        HistogramaLatencia histograma = latencias.get(operacion);
+        return new ResumenOperacion(histograma.getCantidad(), fallos.get(operacion).sum(),
+                histograma.getPromedioNanos() / 1_000.0,
+                micros(histograma.percentilNanos(50)), micros(histograma.percentilNanos(99)),
+                micros(histograma.percentilNanos(99.9)), micros(histograma.getMaximoNanos()));
+    }
+
+    @Override
+    public Map<String, ResumenOperacion> getOperaciones() {
+        Map<String, ResumenOperacion> resumenes = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            resumenes.put(operacion.name(), resumen(operacion));
+        }
+        return resumenes;
+    }
+
+    @Override
+    public long getBytesLeidos() {
+        return bytesLeidos.sum();
+    }
+
+    @Override
+    public long getBytesEscritos() {
+        return bytesEscritos.sum();
+    }
+
+    @Override
+    public void reiniciar() {
+        for (Operacion operacion : Operacion.values()) {
+            latencias.get(operacion).reiniciar();
+            fallos.get(operacion).reset();
+        }
+        bytesLeidos.reset();
+        bytesEscritos.reset();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
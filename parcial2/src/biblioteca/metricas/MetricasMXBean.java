@@ -0,0 +1,14 @@
+package biblioteca.metricas;
+
+import java.util.Map;
+
+// Vista JMX de las métricas (biblioteca:type=Metricas), visible desde jconsole o VisualVM
+public interface MetricasMXBean {
+    Map<String, ResumenOperacion> getOperaciones();
+
+    long getBytesLeidos();
+
+    long getBytesEscritos();
+
+    void reiniciar();
+}
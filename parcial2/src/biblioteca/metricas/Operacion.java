@@ -0,0 +1,12 @@
+package biblioteca.metricas;
+
+// Operaciones del servicio que se miden
+public enum Operacion {
+    PRESTAMO,
+    DEVOLUCION,
+    REGISTRO_SOLICITUD,
+    COMPRA,
+    CARGA_ARCHIVO,
+    REPORTE,
+    VALIDACION_LOTE
+}
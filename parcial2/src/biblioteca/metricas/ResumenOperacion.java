@@ -0,0 +1,39 @@
+package biblioteca.metricas;
+
+import javax.management.ConstructorParameters;
+
+// Instantánea de las métricas de una operación, tal como se publica por JMX (tiempos en microsegundos)
+public class ResumenOperacion {
+    private final long exitos;
+    private final long fallos;
+    private final double promedioMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maximoMicros;
+
+    @ConstructorParameters({"exitos", "fallos", "promedioMicros", "p50Micros", "p99Micros", "p999Micros", "maximoMicros"})
+    public ResumenOperacion(long exitos, long fallos, double promedioMicros, long p50Micros, long p99Micros, long p999Micros, long maximoMicros) {
+        this.exitos = exitos;
+        this.fallos = fallos;
+        this.promedioMicros = promedioMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maximoMicros = maximoMicros;
+    }
+
+    public long getExitos() { return exitos; }
+    public long getFallos() { return fallos; }
+    public double getPromedioMicros() { return promedioMicros; }
+    public long getP50Micros() { return p50Micros; }
+    public long getP99Micros() { return p99Micros; }
+    public long getP999Micros() { return p999Micros; }
+    public long getMaximoMicros() { return maximoMicros; }
+
+    @Override
+    public String toString() {
+        return String.format("éxitos=%d fallos=%d promedio=%.1fus p50=%dus p99=%dus p99.9=%dus máx=%dus",
+                exitos, fallos, promedioMicros, p50Micros, p99Micros, p999Micros, maximoMicros);
+    }
+}
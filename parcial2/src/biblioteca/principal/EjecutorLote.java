@@ -0,0 +1,211 @@
+package biblioteca.principal;
+
+import biblioteca.entidades.SolicitudLibro;
+import biblioteca.servicios.BibliotecaService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Ejecuta un archivo (o stdin) de comandos contra BibliotecaService sin interacción.
+// Una línea por comando, campos separados por ';' como en Compras.txt:
+//   PRESTAR;<idLibro>;<usuario>
+//   DEVOLVER;<idLibro>            (sin ID: el préstamo que vence primero)
+//   DEVOLVER_USUARIO;<usuario>
+//   SOLICITAR;<id>;<título>;<autor>;<género>;<fecha>;<editorial>;<precio>[;<ejemplares>]
+//   COMPRAR
+//   REPORTE[;INCREMENTAL][;GZ]
+//   MULTAS[;<usuario>]            (sin usuario: todos los que deben)
+// Las líneas vacías y las que empiezan con '#' se ignoran.
+//
+// Con más de un hilo, PRESTAR y DEVOLVER con ID se reparten por ID de libro: los comandos de un
+// mismo libro conservan su orden y los de libros distintos avanzan en paralelo (así el diario
+// agrupa sus escrituras). El resto de comandos espera a que termine todo lo anterior.
+public class EjecutorLote {
+
+    public enum Comando {
+        PRESTAR, DEVOLVER, DEVOLVER_USUARIO, SOLICITAR, COMPRAR, REPORTE, MULTAS
+    }
+
+    private static final int MAXIMO_EN_VUELO = 4096;
+
+    private final BibliotecaService servicio;
+    private final Path rutaCompras;
+    private final Path rutaSolicitudes;
+    private final Path rutaSalida;
+    private final int hilos;
+
+    private final Map<Comando, AtomicLong> exitos = new EnumMap<>(Comando.class);
+    private final Map<Comando, AtomicLong> fallos = new EnumMap<>(Comando.class);
+    private final AtomicLong lineasInvalidas = new AtomicLong();
+
+    public EjecutorLote(BibliotecaService servicio, Path rutaCompras, Path rutaSolicitudes, Path rutaSalida, int hilos) {
+        this.servicio = servicio;
+        this.rutaCompras = rutaCompras;
+        this.rutaSolicitudes = rutaSolicitudes;
+        this.rutaSalida = rutaSalida;
+        this.hilos = Math.max(1, hilos);
+        for (Comando comando : Comando.values()) {
+            exitos.put(comando, new AtomicLong());
+            fallos.put(comando, new AtomicLong());
+        }
+    }
+
+    public void ejecutar(BufferedReader entrada) throws IOException {
+        if (hilos == 1) {
+            String linea;
+            long numero = 0;
+            while ((linea = entrada.readLine()) != null) {
+                numero++;
+                ejecutarLinea(linea, numero);
+            }
+            return;
+        }
+
+        Semaphore enVuelo = new Semaphore(MAXIMO_EN_VUELO);
+        List<CompletableFuture<Void>> colas = new ArrayList<>(hilos);
+        for (int i = 0; i < hilos; i++) {
+            colas.add(CompletableFuture.completedFuture(null));
+        }
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            String linea;
+            long numero = 0;
+            while ((linea = entrada.readLine()) != null) {
+                numero++;
+                Integer libroId = libroParticionable(linea);
+                if (libroId == null) {
+                    // Barrera: se espera a los comandos anteriores y se ejecuta en este hilo
+                    esperarTodas(colas);
+                    ejecutarLinea(linea, numero);
+                    continue;
+                }
+                enVuelo.acquireUninterruptibly();
+                String comando = linea;
+                long numeroLinea = numero;
+                int particion = Math.floorMod(libroId, hilos);
+                colas.set(particion, colas.get(particion).thenRunAsync(() -> {
+                    try {
+                        ejecutarLinea(comando, numeroLinea);
+                    } finally {
+                        enVuelo.release();
+                    }
+                }, ejecutor));
+            }
+            esperarTodas(colas);
+        }
+    }
+
+    private static void esperarTodas(List<CompletableFuture<Void>> colas) {
+        CompletableFuture.allOf(colas.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    // ID del libro si el comando se puede repartir por libro; null si no
+    private static Integer libroParticionable(String linea) {
+        String[] campos = linea.trim().split(";", -1);
+        if (campos.length < 2) return null;
+        String nombre = campos[0].trim().toUpperCase();
+        if (!nombre.equals("PRESTAR") && !nombre.equals("DEVOLVER")) return null;
+        try {
+            return Integer.parseInt(campos[1].trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void ejecutarLinea(String linea, long numero) {
+        String texto = linea.trim();
+        if (texto.isEmpty() || texto.startsWith("#")) return;
+        String[] campos = texto.split(";", -1);
+        Comando comando;
+        try {
+            comando = Comando.valueOf(campos[0].trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            invalida(numero, linea, "comando desconocido");
+            return;
+        }
+        try {
+            boolean exito = ejecutarComando(comando, campos);
+            (exito ? exitos : fallos).get(comando).incrementAndGet();
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException | DateTimeException e) {
+            invalida(numero, linea, "campos inválidos");
+        } catch (IOException e) {
+            fallos.get(comando).incrementAndGet();
+            System.err.printf("Línea %d: error de E/S: %s%n", numero, e.getMessage());
+        } catch (UncheckedIOException e) {
+            fallos.get(comando).incrementAndGet();
+            System.err.printf("Línea %d: error de E/S: %s%n", numero, e.getCause().getMessage());
+        } catch (RuntimeException e) {
+            // Un comando que falla no detiene el lote ni la cola de su libro
+            fallos.get(comando).incrementAndGet();
+            System.err.printf("Línea %d: %s%n", numero, e);
+        }
+    }
+
+    private boolean ejecutarComando(Comando comando, String[] campos) throws IOException {
+        switch (comando) {
+            case PRESTAR:
+                return servicio.prestarLibro(Integer.parseInt(campos[1].trim()), campos[2].trim());
+            case DEVOLVER:
+                if (campos.length < 2 || campos[1].isBlank()) return servicio.devolverLibro();
+                return servicio.devolverLibro(Integer.parseInt(campos[1].trim()));
+            case DEVOLVER_USUARIO:
+                return servicio.devolverLibrosDeUsuario(campos[1].trim()) > 0;
+            case SOLICITAR:
+                int ejemplares = campos.length > 8 && !campos[8].isBlank() ? Integer.parseInt(campos[8].trim()) : 1;
+                SolicitudLibro solicitud = new SolicitudLibro(Integer.parseInt(campos[1].trim()), campos[2].trim(),
+                        campos[3].trim(), campos[4].trim(), campos[5].trim(), campos[6].trim(), new BigDecimal(campos[7].trim()), ejemplares);
+                return servicio.registrarNuevaSolicitud(solicitud, rutaCompras, rutaSolicitudes);
+            case COMPRAR:
+                return servicio.realizarCompraDeSolicitudes(rutaSolicitudes, rutaCompras);
+            case REPORTE:
+                List<String> opciones = new ArrayList<>();
+                for (int i = 1; i < campos.length; i++) opciones.add(campos[i].trim().toUpperCase());
+                servicio.generarReporteDePrestamos(rutaSalida, opciones.contains("INCREMENTAL"), opciones.contains("GZ"));
+                return true;
+            case MULTAS:
+                servicio.informarMultas(campos.length < 2 || campos[1].isBlank() ? null : campos[1].trim());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void invalida(long numero, String linea, String motivo) {
+        // Solo las primeras líneas inválidas se muestran; el total va en el resumen
+        if (lineasInvalidas.incrementAndGet() <= 20) {
+            System.err.printf("Línea %d ignorada (%s): %s%n", numero, motivo, linea);
+        }
+    }
+
+    public long getExitos(Comando comando) {
+        return exitos.get(comando).get();
+    }
+
+    public long getFallos(Comando comando) {
+        return fallos.get(comando).get();
+    }
+
+    public long getLineasInvalidas() {
+        return lineasInvalidas.get();
+    }
+
+    public long getTotalEjecutados() {
+        long total = 0;
+        for (Comando comando : Comando.values()) {
+            total += exitos.get(comando).get() + fallos.get(comando).get();
+        }
+        return total;
+    }
+}
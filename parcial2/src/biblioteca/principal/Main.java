@@ -1,14 +1,32 @@
 package biblioteca.principal;
 
 import biblioteca.entidades.Libro;
+import biblioteca.entidades.Prestamo;
 import biblioteca.entidades.SolicitudLibro;
+import biblioteca.metricas.MetricasBiblioteca;
+import biblioteca.servicios.AlmacenColumnar;
+import biblioteca.servicios.CatalogoParticionado;
 import biblioteca.servicios.BibliotecaService;
+import biblioteca.servicios.CompraAtomica;
+import biblioteca.servicios.DiarioPrestamos;
+import biblioteca.servicios.EstadisticasCirculacion;
+import biblioteca.servicios.MotorReservas;
+import biblioteca.servicios.PaginaLibros;
+import biblioteca.servicios.SnapshotCatalogo;
 import biblioteca.servicios.ValidadorExistencias;
+import biblioteca.servicios.VigilanteArchivos;
 
-import java.io.IOException;
+import java.io.*;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Scanner;
 
 public class Main {
@@ -18,11 +36,53 @@ public class Main {
     private static Path rutaSolicitudes;
     private static Path rutaCompras;
     private static Scanner scanner;
+    private static DiarioPrestamos diario;
+    private static VigilanteArchivos vigilante;
 
+    private static final int LIBROS_POR_PAGINA = 20;
+
+    // Sin argumentos: menú interactivo. Modo por lotes (kioscos de autopréstamo, reproducción de tráfico):
+    //   --lote <archivo|->   comandos a ejecutar (ver EjecutorLote); '-' lee de la entrada estándar
+    //   --hilos <n>          comandos en paralelo por libro (por defecto 1, en orden)
+    //   --salida <archivo>   guarda los mensajes del servicio en lugar de descartarlos
+    // Validación (importaciones nocturnas): --validar revisa todo Solicitudes.txt y muestra solo el resumen
+    // En cualquier modo:
+    //   --compacto           guarda el catálogo por columnas (AlmacenColumnar), para catálogos muy grandes
+    //   --particionado <rango|genero>
+    //                        compras repartidas en segmentos (Existencia/Compras/) que se cargan en
+    //                        paralelo; la primera vez se reparte el contenido de Compras.txt. Una vez
+    //                        creada, la partición se abre siempre, aunque se omita la opción
     public static void main(String[] args) {
         try {
-            inicializarSistema();
-            mostrarMenu();
+            String lote = valorArgumento(args, "--lote");
+            String particionado = valorArgumento(args, "--particionado");
+            CatalogoParticionado.Criterio criterio = null;
+            if (particionado != null) {
+                // El criterio queda fijo en cuanto se escribe el manifiesto: no se adivina
+                if (particionado.equalsIgnoreCase("rango")) {
+                    criterio = CatalogoParticionado.Criterio.RANGO_ID;
+                } else if (particionado.equalsIgnoreCase("genero")) {
+                    criterio = CatalogoParticionado.Criterio.GENERO;
+                } else {
+                    System.err.println("Valor no válido para --particionado: '" + particionado + "'. Uso: --particionado <rango|genero>");
+                    return;
+                }
+            }
+            int hilos;
+            try {
+                hilos = Integer.parseInt(Objects.requireNonNullElse(valorArgumento(args, "--hilos"), "1"));
+            } catch (NumberFormatException e) {
+                System.err.println("Valor no válido para --hilos: '" + valorArgumento(args, "--hilos") + "'. Uso: --hilos <n>");
+                return;
+            }
+            inicializarSistema(Arrays.asList(args).contains("--compacto"), criterio);
+            if (lote != null) {
+                ejecutarLote(lote, hilos, valorArgumento(args, "--salida"));
+            } else if (Arrays.asList(args).contains("--validar")) {
+                servicio.validarSolicitudes(rutaSolicitudes, rutaCompras);
+            } else {
+                mostrarMenu();
+            }
         } catch (IOException e) {
             System.err.println("Error de E/S al leer o escribir archivos: " + e.getMessage());
             e.printStackTrace();
@@ -30,10 +90,28 @@ public class Main {
             if (scanner != null) {
                 scanner.close();
             }
+            if (vigilante != null) {
+                try {
+                    vigilante.close();
+                } catch (IOException e) {
+                    System.err.println("Error al detener el seguimiento de archivos: " + e.getMessage());
+                }
+            }
+            // Con el vigilante detenido ya no entran compras externas
+            if (servicio != null && rutaCompras != null) {
+                servicio.guardarSnapshot(rutaCompras);
+            }
+            if (diario != null) {
+                try {
+                    diario.close();
+                } catch (IOException e) {
+                    System.err.println("Error al cerrar el diario de préstamos: " + e.getMessage());
+                }
+            }
         }
     }
 
-    private static void inicializarSistema() throws IOException {
+    private static void inicializarSistema(boolean compacto, CatalogoParticionado.Criterio criterio) throws IOException {
         String userHome = System.getProperty("user.home");
         Path baseDirPath = Paths.get(userHome, "Parcial_2J2");
         Path bibliotecaPath = baseDirPath.resolve("Biblioteca");
@@ -53,17 +131,102 @@ public class Main {
             Files.writeString(rutaCompras, "ID;Título;Autor;Género;Fecha de publicación;Editorial;Precio");
         }
 
+        // Métricas visibles por JMX (jconsole: biblioteca > Metricas)
+        MetricasBiblioteca.registrarEnJmx();
         validador = new ValidadorExistencias();
         servicio = new BibliotecaService();
         scanner = new Scanner(System.in);
 
-        // Lógica de inicialización cambiada: cargar libros desde Compras.txt
-        List<Libro> librosComprados = validador.cargarCompras(rutaCompras);
-        servicio.cargarLibrosDisponibles(librosComprados);
+        // Una compra interrumpida se deshace antes de leer Compras.txt
+        CompraAtomica.recuperar(rutaCompras);
+
+        AlmacenColumnar almacen = compacto ? new AlmacenColumnar() : null;
+        if (compacto) {
+            servicio.usarAlmacenCompacto(almacen);
+        }
+
+        // Si ya hay partición se usa aunque no se haya pedido: Compras.txt no tiene las compras posteriores
+        Path carpetaParticion = existenciaPath.resolve("Compras");
+        boolean particionado = criterio != null || CatalogoParticionado.existe(carpetaParticion);
+
+        // Con partición, desde los segmentos (en paralelo); si no, desde la copia binaria si
+        // sigue vigente y, si no, desde Compras.txt
+        SnapshotCatalogo snapshot = particionado ? null : SnapshotCatalogo.abrirSiVigente(rutaCompras);
+        if (particionado) {
+            CatalogoParticionado particion = CatalogoParticionado.abrirOCrear(carpetaParticion, criterio, rutaCompras);
+            servicio.usarParticion(particion);
+            long inicio = System.nanoTime();
+            List<Libro> librosComprados = validador.cargarComprasParticionadas(particion);
+            servicio.cargarLibrosDisponibles(librosComprados);
+            System.out.printf("Compras particionadas por %s: %d segmentos leídos en %d ms.%n", particion.getCriterio(),
+                    particion.getSegmentos().size(), (System.nanoTime() - inicio) / 1_000_000);
+        } else if (snapshot != null) {
+            servicio.cargarLibrosDisponibles(snapshot);
+        } else {
+            List<? extends Libro> librosComprados = compacto
+                    ? validador.cargarComprasCompactas(rutaCompras, almacen)
+                    : validador.cargarCompras(rutaCompras);
+            servicio.cargarLibrosDisponibles(librosComprados);
+            try {
+                SnapshotCatalogo.escribir(rutaCompras, librosComprados);
+                servicio.usarSnapshot(SnapshotCatalogo.abrirSiVigente(rutaCompras));
+            } catch (IOException e) {
+                // Sin copia binaria el próximo arranque vuelve a leer Compras.txt
+                System.err.println("No se pudo escribir Compras.bin: " + e.getMessage());
+            }
+        }
+
+        // Préstamos y devoluciones de sesiones anteriores
+        diario = DiarioPrestamos.abrir(bibliotecaPath);
+        servicio.recuperarPrestamos(diario);
+
+        // Compras y solicitudes añadidas por otras herramientas mientras el sistema está en marcha
+        vigilante = servicio.vigilarArchivos(rutaCompras, rutaSolicitudes);
 
         System.out.println("\nSistema inicializado correctamente en: " + baseDirPath.toAbsolutePath());
     }
 
+    private static String valorArgumento(String[] args, String nombre) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(nombre)) return args[i + 1];
+        }
+        return null;
+    }
+
+    private static void ejecutarLote(String origen, int hilos, String archivoSalida) throws IOException {
+        // Los mensajes por operación se descartan o se escriben con buffer a un archivo
+        PrintStream mensajes = archivoSalida == null
+                ? new PrintStream(OutputStream.nullOutputStream())
+                : new PrintStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(archivoSalida)), 1 << 16), false, StandardCharsets.UTF_8);
+        servicio.setSalida(mensajes);
+
+        EjecutorLote ejecutor = new EjecutorLote(servicio, rutaCompras, rutaSolicitudes, rutaSalida, hilos);
+        long inicio = System.nanoTime();
+        try (BufferedReader entrada = origen.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedReader(Paths.get(origen), StandardCharsets.UTF_8)) {
+            ejecutor.ejecutar(entrada);
+        } finally {
+            servicio.setSalida(System.out);
+            mensajes.close();
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        System.out.println("\n--- Resumen del lote ---");
+        for (EjecutorLote.Comando comando : EjecutorLote.Comando.values()) {
+            long exitos = ejecutor.getExitos(comando);
+            long fallos = ejecutor.getFallos(comando);
+            if (exitos + fallos > 0) {
+                System.out.printf("%-16s %8d correctos %8d rechazados%n", comando, exitos, fallos);
+            }
+        }
+        if (ejecutor.getLineasInvalidas() > 0) {
+            System.out.printf("Líneas inválidas: %d%n", ejecutor.getLineasInvalidas());
+        }
+        System.out.printf("%d comandos en %.2f s (%.0f comandos/s)%n", ejecutor.getTotalEjecutados(), segundos,
+                ejecutor.getTotalEjecutados() / Math.max(segundos, 1e-9));
+    }
+
     private static void mostrarMenu() throws IOException {
         boolean salir = false;
         while (!salir) {
@@ -73,7 +236,12 @@ public class Main {
             System.out.println("3. Generar reporte de préstamos");
             System.out.println("4. Registrar nueva solicitud de libro");
             System.out.println("5. Realizar compra de solicitudes");
-            System.out.println("6. Salir del sistema");
+            System.out.println("6. Listar préstamos vencidos");
+            System.out.println("7. Estadísticas de circulación");
+            System.out.println("8. Consultar historial de devoluciones");
+            System.out.println("9. Reservar o retirar libro apartado");
+            System.out.println("10. Consultar multas");
+            System.out.println("11. Salir del sistema");
             System.out.print("\nSeleccione una opción: ");
 
             int opcion = 0;
@@ -90,7 +258,12 @@ public class Main {
                 case 3: generarReporte(); break;
                 case 4: registrarSolicitud(); break;
                 case 5: realizarSolicitudes(); break;
-                case 6:
+                case 6: listarVencidos(); break;
+                case 7: mostrarEstadisticas(); break;
+                case 8: consultarHistorial(); break;
+                case 9: gestionarReservas(); break;
+                case 10: consultarMultas(); break;
+                case 11:
                     salir = true;
                     System.out.println("Gracias por utilizar el Sistema de Biblioteca Universitaria.");
                     break;
@@ -102,37 +275,206 @@ public class Main {
     }
 
     private static void prestarLibro() {
-        List<Libro> librosDisponibles = servicio.getLibrosDisponibles();
-        if (librosDisponibles.isEmpty()) {
+        if (servicio.getCatalogoDisponibles().estaVacio()) {
             System.out.println("\nNo hay libros disponibles para prestar.");
             return;
         }
 
-        System.out.println("\n--- Libros Disponibles para Préstamo ---");
-        for (int i = 0; i < librosDisponibles.size(); i++) {
-            Libro libro = librosDisponibles.get(i);
-            System.out.printf("%d. %s (Autor: %s)\n", (i + 1), libro.getTitulo(), libro.getAutor());
-        }
-        System.out.println("----------------------------------------");
+        System.out.print("Buscar por 1. Título  2. Autor  3. Género (Enter = título): ");
+        String opcionCampo = scanner.nextLine().trim();
+        PaginaLibros.Campo campo = opcionCampo.equals("2") ? PaginaLibros.Campo.AUTOR
+                : opcionCampo.equals("3") ? PaginaLibros.Campo.GENERO : PaginaLibros.Campo.TITULO;
+        System.out.print("Comienzo del texto a buscar (Enter para ver todos): ");
+        String prefijo = scanner.nextLine();
+
+        // Se muestran los libros de a una página; solo se consulta la página que se ve
+        PaginaLibros pagina = servicio.buscarLibrosDisponibles(campo, prefijo, null, LIBROS_POR_PAGINA);
+        int numeroPagina = 1;
+        while (true) {
+            // Páginas vacías que solo saltaron títulos sin ejemplares disponibles
+            while (pagina.getLibros().isEmpty() && pagina.hayMas()) {
+                pagina = servicio.buscarLibrosDisponibles(campo, prefijo, pagina.getSiguiente(), LIBROS_POR_PAGINA);
+            }
+            List<Libro> libros = pagina.getLibros();
+            if (libros.isEmpty()) {
+                System.out.println("\nNo hay libros disponibles que coincidan con la búsqueda.");
+                return;
+            }
+            System.out.printf("%n--- Libros Disponibles para Préstamo (página %d) ---%n", numeroPagina);
+            for (int i = 0; i < libros.size(); i++) {
+                Libro libro = libros.get(i);
+                System.out.printf("%d. %s (Autor: %s, Género: %s) [%d de %d ejemplares]%n", (i + 1), libro.getTitulo(), libro.getAutor(), libro.getGenero(),
+                        servicio.getCatalogoDisponibles().ejemplaresDisponibles(libro.getId()),
+                        servicio.getCatalogoDisponibles().ejemplaresTotales(libro.getId()));
+            }
+            System.out.println("----------------------------------------");
 
-        int seleccion = -1;
-        // Lógica de selección de libro... (sin cambios)
-        System.out.print("Seleccione el número del libro que desea prestar: ");
-        seleccion = Integer.parseInt(scanner.nextLine());
+            System.out.print(pagina.hayMas()
+                    ? "Seleccione el número del libro, 's' para la página siguiente o Enter para cancelar: "
+                    : "Seleccione el número del libro o Enter para cancelar: ");
+            String entrada = scanner.nextLine().trim();
+            if (entrada.isEmpty()) return;
+            if (entrada.equalsIgnoreCase("s") && pagina.hayMas()) {
+                pagina = servicio.buscarLibrosDisponibles(campo, prefijo, pagina.getSiguiente(), LIBROS_POR_PAGINA);
+                numeroPagina++;
+                continue;
+            }
 
-        System.out.print("Ingrese el ID del usuario (su nombre): ");
-        String userId = scanner.nextLine().trim();
+            int seleccion;
+            try {
+                seleccion = Integer.parseInt(entrada);
+            } catch (NumberFormatException e) {
+                System.out.println("Error: Debe ingresar un número válido.");
+                continue;
+            }
+            if (seleccion < 1 || seleccion > libros.size()) {
+                System.out.println("Error: El número no corresponde a ningún libro de la página.");
+                continue;
+            }
 
-        Libro libroSeleccionado = librosDisponibles.get(seleccion - 1);
-        servicio.prestarLibro(libroSeleccionado, userId);
+            System.out.print("Ingrese el ID del usuario (su nombre): ");
+            String userId = scanner.nextLine().trim();
+            servicio.prestarLibro(libros.get(seleccion - 1), userId);
+            return;
+        }
     }
 
     private static void devolverLibro() {
-        servicio.devolverLibro();
+        System.out.print("Ingrese el ID del libro devuelto (Enter para el préstamo más antiguo): ");
+        String entrada = scanner.nextLine().trim();
+        if (entrada.isEmpty()) {
+            servicio.devolverLibro();
+            return;
+        }
+        try {
+            servicio.devolverLibro(Integer.parseInt(entrada));
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Debe ingresar un número válido.");
+        }
+    }
+
+    private static void listarVencidos() {
+        List<Prestamo> vencidos = servicio.getPrestamosVencidos(LocalDate.now());
+        if (vencidos.isEmpty()) {
+            System.out.println("\nNo hay préstamos vencidos.");
+            return;
+        }
+        System.out.println("\n--- Préstamos Vencidos ---");
+        for (Prestamo prestamo : vencidos) {
+            System.out.printf("ID %d - %s (Usuario: %s, venció el %s)%n", prestamo.getLibro().getId(),
+                    prestamo.getLibro().getTitulo(), prestamo.getUsuarioId(), prestamo.getFechaVencimiento());
+        }
+        System.out.println("--------------------------");
+    }
+
+    private static void mostrarEstadisticas() {
+        EstadisticasCirculacion estadisticas = servicio.getEstadisticas();
+        System.out.println("\n--- Estadísticas de Circulación ---");
+        System.out.printf("Préstamos: %d (devueltos: %d)%n", estadisticas.getTotalPrestamos(), estadisticas.getTotalDevoluciones());
+
+        List<EstadisticasCirculacion.ConteoLibro> masPrestados = estadisticas.masPrestados(10);
+        if (!masPrestados.isEmpty()) {
+            System.out.println("\nLibros más prestados:");
+            for (EstadisticasCirculacion.ConteoLibro conteo : masPrestados) {
+                System.out.printf("  ID %d - %s: %d préstamos%n", conteo.getLibroId(), conteo.getTitulo(), conteo.getPrestamos());
+            }
+        }
+
+        Map<String, Long> prestamosPorGenero = estadisticas.getPrestamosPorGenero();
+        Map<String, Long> activosPorGenero = estadisticas.getActivosPorGenero();
+        System.out.println("\nPor género (préstamos / prestados ahora / ejemplares disponibles):");
+        for (Map.Entry<String, Long> entrada : estadisticas.getDisponiblesPorGenero().entrySet()) {
+            String genero = entrada.getKey();
+            System.out.printf("  %s: %d / %d / %d%n", genero, prestamosPorGenero.getOrDefault(genero, 0L),
+                    activosPorGenero.getOrDefault(genero, 0L), entrada.getValue());
+        }
+
+        System.out.print("\nIngrese un ID de usuario para ver su actividad (Enter para omitir): ");
+        String usuarioId = scanner.nextLine().trim();
+        if (!usuarioId.isEmpty()) {
+            System.out.printf("Usuario %s: %d préstamos, %d libros prestados ahora.%n", usuarioId,
+                    estadisticas.prestamosDeUsuario(usuarioId), estadisticas.activosDeUsuario(usuarioId));
+        }
+        System.out.println("-----------------------------------");
+    }
+
+    private static void consultarMultas() {
+        System.out.print("Ingrese un ID de usuario (Enter para ver todos los que deben): ");
+        String usuarioId = scanner.nextLine().trim();
+        servicio.informarMultas(usuarioId.isEmpty() ? null : usuarioId);
+    }
+
+    private static void consultarHistorial() throws IOException {
+        System.out.print("Ingrese un ID de usuario (Enter para buscar por fechas de devolución): ");
+        String usuarioId = scanner.nextLine().trim();
+        List<Prestamo> devoluciones;
+        if (!usuarioId.isEmpty()) {
+            devoluciones = servicio.getDevolucionesDeUsuario(usuarioId);
+        } else {
+            try {
+                System.out.print("Desde (AAAA-MM-DD): ");
+                LocalDate desde = LocalDate.parse(scanner.nextLine().trim());
+                System.out.print("Hasta (AAAA-MM-DD, Enter = hoy): ");
+                String entrada = scanner.nextLine().trim();
+                LocalDate hasta = entrada.isEmpty() ? LocalDate.now() : LocalDate.parse(entrada);
+                devoluciones = servicio.getDevolucionesEntre(desde, hasta);
+            } catch (DateTimeParseException e) {
+                System.out.println("Error: Formato de fecha inválido. Use AAAA-MM-DD.");
+                return;
+            }
+        }
+        if (devoluciones.isEmpty()) {
+            System.out.println("\nNo hay devoluciones que coincidan con la consulta.");
+            return;
+        }
+        System.out.println("\n--- Historial de Devoluciones ---");
+        for (Prestamo prestamo : devoluciones) {
+            System.out.printf("ID %d - %s (Usuario: %s, prestado el %s, devuelto el %s, multa $%.2f)%n", prestamo.getLibro().getId(),
+                    prestamo.getLibro().getTitulo(), prestamo.getUsuarioId(), prestamo.getFechaPrestamo(),
+                    prestamo.getFechaDevolucion(), prestamo.getMulta());
+        }
+        System.out.println("---------------------------------");
+    }
+
+    private static void gestionarReservas() {
+        System.out.print("Ingrese el ID del usuario (su nombre): ");
+        String usuarioId = scanner.nextLine().trim();
+        if (usuarioId.isEmpty()) return;
+
+        List<MotorReservas.Apartado> apartados = servicio.getApartadosDeUsuario(usuarioId);
+        if (!apartados.isEmpty()) {
+            System.out.println("\n--- Libros apartados para " + usuarioId + " ---");
+            for (MotorReservas.Apartado apartado : apartados) {
+                System.out.printf("ID %d - %s (hasta el %s)%n", apartado.getLibro().getId(), apartado.getLibro().getTitulo(),
+                        apartado.getVencimiento().atZone(ZoneId.systemDefault()).toLocalDate());
+            }
+        }
+
+        System.out.print("\nIngrese el ID del libro a retirar o reservar (Enter para cancelar): ");
+        String entrada = scanner.nextLine().trim();
+        if (entrada.isEmpty()) return;
+        int libroId;
+        try {
+            libroId = Integer.parseInt(entrada);
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Debe ingresar un número válido.");
+            return;
+        }
+        // Un libro apartado se retira como préstamo; cualquier otro se reserva
+        boolean apartado = apartados.stream().anyMatch(a -> a.getLibro().getId() == libroId);
+        if (apartado) {
+            servicio.prestarLibro(libroId, usuarioId);
+        } else {
+            servicio.reservarLibro(libroId, usuarioId);
+        }
     }
 
     private static void generarReporte() throws IOException {
-        servicio.generarReporteDePrestamos(rutaSalida);
+        System.out.print("1. Completo  2. Incremental (solo devoluciones nuevas; activos aparte) (Enter = completo): ");
+        boolean incremental = scanner.nextLine().trim().equals("2");
+        System.out.print("¿Comprimir con gzip? (s/N): ");
+        boolean comprimido = scanner.nextLine().trim().equalsIgnoreCase("s");
+        servicio.generarReporteDePrestamos(rutaSalida, incremental, comprimido);
     }
 
     private static void registrarSolicitud() throws IOException {
@@ -152,12 +494,15 @@ public class Main {
             String editorial = scanner.nextLine();
             System.out.print("Precio: ");
             BigDecimal precio = new BigDecimal(scanner.nextLine());
+            System.out.print("Cantidad de ejemplares (Enter = 1): ");
+            String cantidad = scanner.nextLine().trim();
+            int ejemplares = cantidad.isEmpty() ? 1 : Integer.parseInt(cantidad);
 
-            SolicitudLibro nuevaSolicitud = new SolicitudLibro(id, titulo, autor, genero, fecha, editorial, precio);
+            SolicitudLibro nuevaSolicitud = new SolicitudLibro(id, titulo, autor, genero, fecha, editorial, precio, ejemplares);
             servicio.registrarNuevaSolicitud(nuevaSolicitud, rutaCompras, rutaSolicitudes);
 
         } catch (NumberFormatException e) {
-            System.out.println("Error en el formato del número (ID o Precio). La solicitud ha sido cancelada.");
+            System.out.println("Error en el formato del número (ID, Precio o Cantidad). La solicitud ha sido cancelada.");
         } catch (Exception e) {
             System.out.println("Ha ocurrido un error inesperado: " + e.getMessage());
         }
@@ -0,0 +1,126 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Modo compacto del catálogo: los datos de los libros se guardan por columnas en arreglos
+// primitivos (autor, género y editorial como códigos de un diccionario, la fecha como día
+// epoch y el precio en centavos) y cada Libro es una vista LibroCompacto sobre su fila.
+// Las filas se agregan en bloques que nunca se copian, así que leer una fila no necesita bloqueo.
+public class AlmacenColumnar {
+    private static final int BITS_BLOQUE = 12;
+    private static final int TAMAÑO_BLOQUE = 1 << BITS_BLOQUE;
+
+    // Un tramo de TAMAÑO_BLOQUE filas de cada columna
+    private static final class Bloque {
+        final int[] ids = new int[TAMAÑO_BLOQUE];
+        final String[] titulos = new String[TAMAÑO_BLOQUE];
+        final int[] autores = new int[TAMAÑO_BLOQUE];
+        final int[] generos = new int[TAMAÑO_BLOQUE];
+        final int[] editoriales = new int[TAMAÑO_BLOQUE];
+        final int[] fechas = new int[TAMAÑO_BLOQUE];
+        final long[] precios = new long[TAMAÑO_BLOQUE];
+        final int[] ejemplares = new int[TAMAÑO_BLOQUE];
+    }
+
+    private final DiccionarioCadenas autores = new DiccionarioCadenas();
+    private final DiccionarioCadenas generos = new DiccionarioCadenas();
+    private final DiccionarioCadenas editoriales = new DiccionarioCadenas();
+    private volatile Bloque[] bloques = new Bloque[4];
+    private int filas;
+
+    // Misma firma que LectorArchivoLibros.FabricaLibro: el lector escribe directamente en las columnas
+    public LibroCompacto agregar(int id, String titulo, String autor, String genero, LocalDate fechaPublicacion,
+                                 String editorial, BigDecimal precio, int ejemplares) {
+        if (ejemplares < 1) throw new IllegalArgumentException("La cantidad de ejemplares debe ser al menos 1: " + ejemplares);
+        int codigoAutor = autores.codificar(autor);
+        int codigoGenero = generos.codificar(genero);
+        int codigoEditorial = editoriales.codificar(editorial);
+        // Compras.txt guarda el precio con dos decimales
+        long centavos = precio.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        int fecha = Math.toIntExact(fechaPublicacion.toEpochDay());
+
+        int fila;
+        synchronized (this) {
+            fila = filas;
+            Bloque bloque = bloqueParaEscribir(fila);
+            int i = fila & (TAMAÑO_BLOQUE - 1);
+            bloque.ids[i] = id;
+            bloque.titulos[i] = titulo;
+            bloque.autores[i] = codigoAutor;
+            bloque.generos[i] = codigoGenero;
+            bloque.editoriales[i] = codigoEditorial;
+            bloque.fechas[i] = fecha;
+            bloque.precios[i] = centavos;
+            bloque.ejemplares[i] = ejemplares;
+            filas = fila + 1;
+        }
+        return new LibroCompacto(this, fila, id);
+    }
+
+    public LibroCompacto agregar(Libro libro) {
+        if (libro instanceof LibroCompacto && ((LibroCompacto) libro).perteneceA(this)) {
+            return (LibroCompacto) libro;
+        }
+        return agregar(libro.getId(), libro.getTitulo(), libro.getAutor(), libro.getGenero(), libro.getFechaPublicacion(),
+                libro.getEditorial(), libro.getPrecio(), libro.getEjemplares());
+    }
+
+    public synchronized int getFilas() {
+        return filas;
+    }
+
+    public int getAutoresDistintos() { return autores.tamaño(); }
+    public int getGenerosDistintos() { return generos.tamaño(); }
+    public int getEditorialesDistintas() { return editoriales.tamaño(); }
+
+    private Bloque bloqueParaEscribir(int fila) {
+        int indice = fila >>> BITS_BLOQUE;
+        Bloque[] actuales = bloques;
+        if (indice == actuales.length) {
+            actuales = Arrays.copyOf(actuales, actuales.length * 2);
+        }
+        if (actuales[indice] == null) {
+            actuales[indice] = new Bloque();
+            bloques = actuales;
+        }
+        return actuales[indice];
+    }
+
+    // Lecturas de LibroCompacto: la fila ya estaba escrita cuando se creó la vista
+    private Bloque bloque(int fila) {
+        return bloques[fila >>> BITS_BLOQUE];
+    }
+
+    String titulo(int fila) {
+        return bloque(fila).titulos[fila & (TAMAÑO_BLOQUE - 1)];
+    }
+
+    String autor(int fila) {
+        return autores.valor(bloque(fila).autores[fila & (TAMAÑO_BLOQUE - 1)]);
+    }
+
+    String genero(int fila) {
+        return generos.valor(bloque(fila).generos[fila & (TAMAÑO_BLOQUE - 1)]);
+    }
+
+    String editorial(int fila) {
+        return editoriales.valor(bloque(fila).editoriales[fila & (TAMAÑO_BLOQUE - 1)]);
+    }
+
+    LocalDate fechaPublicacion(int fila) {
+        return LocalDate.ofEpochDay(bloque(fila).fechas[fila & (TAMAÑO_BLOQUE - 1)]);
+    }
+
+    BigDecimal precio(int fila) {
+        return BigDecimal.valueOf(bloque(fila).precios[fila & (TAMAÑO_BLOQUE - 1)], 2);
+    }
+
+    int ejemplares(int fila) {
+        return bloque(fila).ejemplares[fila & (TAMAÑO_BLOQUE - 1)];
+    }
+}
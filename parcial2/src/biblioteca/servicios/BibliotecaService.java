@@ -3,168 +3,650 @@ package biblioteca.servicios;
 import biblioteca.entidades.Libro;
 import biblioteca.entidades.Prestamo;
 import biblioteca.entidades.SolicitudLibro;
+import biblioteca.metricas.EventoArchivo;
+import biblioteca.metricas.MetricasBiblioteca;
+import biblioteca.metricas.Operacion;
+import sistema.solicitudLibro;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 public class BibliotecaService {
-    private final Stack<Libro> pilaLibrosDisponibles = new Stack<>();
-    private final Queue<Prestamo> colaPrestamosActivos = new LinkedList<>();
-    private final List<Prestamo> historialDevoluciones = new ArrayList<>();
+    private final CatalogoLibros catalogoDisponibles = new CatalogoLibros();
+    private final RegistroPrestamosActivos prestamosActivos = new RegistroPrestamosActivos();
+    // Solo en memoria hasta recuperar el diario; después derrama a Biblioteca/Historial al compactar
+    private volatile HistorialSegmentado historial = new HistorialSegmentado();
 
-    public void cargarLibrosDisponibles(List<Libro> librosComprados) {
-        pilaLibrosDisponibles.clear();
+    // Préstamos y devoluciones comparten el bloqueo de lectura (pueden ir en paralelo);
+    // la compactación del diario toma el de escritura para ver un estado consistente
+    private final ReadWriteLock bloqueoEstado = new ReentrantReadWriteLock();
+    // Serializa las escrituras en Compras.txt / Solicitudes.txt y el índice de duplicados
+    private final Object bloqueoArchivos = new Object();
+    private IndiceDuplicados indiceDuplicados;
+    private SnapshotCatalogo snapshotCompras;
+    private final List<Libro> pendientesSnapshot = new ArrayList<>();
+    private long tamañoCompras = -1;
+    private long modificacionCompras;
+    private volatile DiarioPrestamos diario;
+    private final GeneradorReportes generadorReportes = new GeneradorReportes();
+    private final MotorMultas motorMultas = new MotorMultas();
+    private final EstadisticasCirculacion estadisticas = new EstadisticasCirculacion();
+    // Los ejemplares devueltos que alguien espera quedan apartados en lugar de volver al catálogo
+    private final MotorReservas reservas = new MotorReservas(catalogoDisponibles);
+    private final MetricasBiblioteca metricas = MetricasBiblioteca.getInstancia();
+    // Mensajes para el usuario; el modo por lotes los descarta o los envía a un archivo
+    private volatile PrintStream salida = System.out;
+
+    // Eventos de diario tras los que se compacta en un punto de control
+    private static final long UMBRAL_COMPACTACION = 10_000;
+
+    // Con vigilante, las escrituras propias en Compras.txt y Solicitudes.txt pasan por él
+    private volatile VigilanteArchivos vigilante;
+    // Compras repartidas en segmentos; null si se usa solo Compras.txt
+    private volatile CatalogoParticionado particion;
+
+    public BibliotecaService() {
+        reservas.setAviso(apartado -> salida.printf("%nRESERVA: El libro '%s' queda apartado para %s hasta el %s.%n",
+                apartado.getLibro().getTitulo(), apartado.getUsuarioId(),
+                apartado.getVencimiento().atZone(ZoneId.systemDefault()).toLocalDate()));
+    }
+
+    public void setSalida(PrintStream salida) {
+        this.salida = salida;
+    }
+
+    // Modo compacto: los libros del catálogo pasan a guardarse por columnas en el almacén
+    public void usarAlmacenCompacto(AlmacenColumnar almacen) {
+        catalogoDisponibles.usarAlmacen(almacen);
+    }
+
+    // Las compras van a los segmentos de la partición en lugar de a Compras.txt (sin Compras.bin)
+    public void usarParticion(CatalogoParticionado particion) {
+        this.particion = particion;
+    }
+
+    public void cargarLibrosDisponibles(List<? extends Libro> librosComprados) {
+        catalogoDisponibles.limpiar();
+        estadisticas.limpiarInventario();
         for (Libro libro : librosComprados) {
-            pilaLibrosDisponibles.push(libro);
+            catalogoDisponibles.agregar(libro);
+            estadisticas.registrarEjemplares(libro);
         }
-        System.out.printf("%nSe han cargado %d libros disponibles desde Compras.txt.%n", pilaLibrosDisponibles.size());
+        salida.printf("%nSe han cargado %d libros disponibles desde %s.%n", catalogoDisponibles.tamaño(),
+                particion == null ? "Compras.txt" : "los segmentos de compras");
     }
 
-    public void registrarNuevaSolicitud(SolicitudLibro solicitud, Path rutaCompras, Path rutaSolicitudes) throws IOException {
-        ValidadorExistencias validador = new ValidadorExistencias();
-        List<Libro> comprasActuales = validador.cargarCompras(rutaCompras);
+    // Arranque desde Compras.bin: los libros se materializan al consultarlos
+    public void cargarLibrosDisponibles(SnapshotCatalogo snapshot) {
+        catalogoDisponibles.cargarBase(snapshot);
+        snapshotCompras = snapshot;
+        estadisticas.limpiarInventario();
+        estadisticas.registrarEjemplares(snapshot.ejemplaresPorGenero());
+        salida.printf("%nSe han cargado %d libros disponibles desde Compras.bin.%n", catalogoDisponibles.tamaño());
+    }
 
-        boolean existe = comprasActuales.stream()
-                .anyMatch(libro -> libro.getId() == solicitud.getId() || libro.getTitulo().equalsIgnoreCase(solicitud.getTitulo()));
+    public boolean registrarNuevaSolicitud(SolicitudLibro solicitud, Path rutaCompras, Path rutaSolicitudes) throws IOException {
+        long inicio = metricas.iniciar();
+        boolean exito = false;
+        try {
+            exito = registrarSolicitud(solicitud, rutaCompras, rutaSolicitudes);
+        } finally {
+            metricas.registrar(Operacion.REGISTRO_SOLICITUD, inicio, exito);
+        }
+        return exito;
+    }
 
-        if (existe) {
-            System.out.println("\nERROR: No se puede solicitar el libro '" + solicitud.getTitulo() + "' porque ya existe en el catálogo de compras.");
-            return;
+    private boolean registrarSolicitud(SolicitudLibro solicitud, Path rutaCompras, Path rutaSolicitudes) throws IOException {
+        // Comprobación y escritura bajo el mismo bloqueo: dos solicitudes iguales no pasan a la vez
+        synchronized (bloqueoArchivos) {
+            IndiceDuplicados indice = obtenerIndiceDuplicados(rutaCompras);
+            boolean existe = indice.existe(solicitud);
+
+            if (existe) {
+                salida.println("\nERROR: No se puede solicitar el libro '" + solicitud.getTitulo() + "' porque ya existe en el catálogo de compras.");
+                return false;
+            }
+            // Un título parecido puede ser otro tomo o edición: se avisa pero la solicitud sigue
+            IndiceTitulos.Coincidencia parecido = indice.buscarTituloSimilar(solicitud);
+            if (parecido != null) {
+                salida.printf("%nAVISO: El título '%s' se parece al del libro ya comprado con ID %d ('%s').%n",
+                        solicitud.getTitulo(), parecido.getLibroId(), parecido.getTituloNormalizado());
+            }
+
+            // Mismo formato que las compras, con el precio independiente de la configuración regional
+            StringBuilder nuevaLinea = new StringBuilder();
+            CompraAtomica.agregarLinea(nuevaLinea, solicitud);
+
+            // Añadir con salto de línea para evitar que se pegue al contenido existente
+            String texto = System.lineSeparator() + nuevaLinea;
+            EventoArchivo evento = EventoArchivo.iniciar("SOLICITUD", rutaSolicitudes);
+            escribirSeguido(rutaSolicitudes, () ->
+                    Files.writeString(rutaSolicitudes, texto, StandardOpenOption.APPEND, StandardOpenOption.CREATE));
+            evento.terminar(texto.getBytes(StandardCharsets.UTF_8).length, 1, true);
+            salida.println("\nSOLICITUD REGISTRADA: El libro '" + solicitud.getTitulo() + "' ha sido añadido a la lista de solicitudes.");
+            return true;
         }
+    }
 
-        // --- CORRECCIÓN AQUÍ: Usamos los getters correspondientes ---
-        String nuevaLinea = String.format("%d;%s;%s;%s;%s;%s;%.2f",
-                solicitud.getId(),
-                solicitud.getTitulo(),
-                solicitud.getAutor(),
-                solicitud.getGenero(), // getter
-                solicitud.getFechaPublicacion().format(DateTimeFormatter.ISO_LOCAL_DATE), // getter
-                solicitud.getEditorial(), // getter
-                solicitud.getPrecio()      // getter
-        );
+    public boolean realizarCompraDeSolicitudes(Path rutaSolicitudes, Path rutaCompras) throws IOException {
+        long inicio = metricas.iniciar();
+        boolean exito = false;
+        try {
+            exito = comprarSolicitudes(rutaSolicitudes, rutaCompras);
+        } finally {
+            metricas.registrar(Operacion.COMPRA, inicio, exito);
+        }
+        return exito;
+    }
+
+    private boolean comprarSolicitudes(Path rutaSolicitudes, Path rutaCompras) throws IOException {
+        // Una sola compra a la vez sobre los archivos y el índice
+        synchronized (bloqueoArchivos) {
+            // Las solicitudes pasan a Compras.txt por lotes y se confirman de una vez (ver CompraAtomica)
+            // Con partición, cada solicitud va a su segmento y confirma el manifiesto
+            CatalogoParticionado segmentos = particion;
+            IndiceDuplicados indice = obtenerIndiceDuplicados(rutaCompras);
+            long[] ejemplares = {0};
+            // Cada lote llega ya confirmado en disco: los libros pasan directamente al catálogo (con todos sus ejemplares) y a los índices
+            LectorArchivoLibros.ConsumidorLote<SolicitudLibro> receptor = lote -> {
+                for (SolicitudLibro solicitud : lote) {
+                    catalogoDisponibles.agregar(solicitud);
+                    estadisticas.registrarEjemplares(solicitud);
+                    reservas.atender(solicitud.getId());
+                    ejemplares[0] += solicitud.getEjemplares();
+                }
+                indice.registrarTodos(lote);
+                actualizarSnapshot(rutaCompras, lote);
+            };
+            int comprados;
+            if (segmentos != null) {
+                comprados = escribirSeguido(rutaSolicitudes, () -> segmentos.comprar(rutaSolicitudes, receptor));
+            } else {
+                CompraAtomica compra = new CompraAtomica(rutaSolicitudes, rutaCompras);
+                comprados = escribirSeguido(rutaCompras, () -> escribirSeguido(rutaSolicitudes, () -> compra.ejecutar(receptor)));
+            }
 
-        // Añadir con salto de línea para evitar que se pegue al contenido existente
-        Files.writeString(rutaSolicitudes, System.lineSeparator() + nuevaLinea, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
-        System.out.println("\nSOLICITUD REGISTRADA: El libro '" + solicitud.getTitulo() + "' ha sido añadido a la lista de solicitudes.");
+            if (comprados == 0) {
+                salida.println("\nNo hay solicitudes pendientes para realizar.");
+                return false;
+            }
+            indice.guardar();
+            salida.printf("\nCOMPRA REALIZADA: Se han procesado y añadido %d libros nuevos al catálogo (%d ejemplares).", comprados, ejemplares[0]);
+            salida.println("\nEstos libros ahora están disponibles para ser prestados.");
+            return true;
+        }
+    }
+
+    // Valida todo el archivo de solicitudes contra las compras (en paralelo) y muestra solo el resumen
+    public ValidacionLote validarSolicitudes(Path rutaSolicitudes, Path rutaCompras) throws IOException {
+        synchronized (bloqueoArchivos) {
+            ValidacionLote validacion = new ValidadorExistencias().validarSolicitudes(rutaSolicitudes, obtenerIndiceDuplicados(rutaCompras));
+            salida.println("\nVALIDACIÓN: " + validacion);
+            return validacion;
+        }
     }
 
-    public void realizarCompraDeSolicitudes(Path rutaSolicitudes, Path rutaCompras) throws IOException {
-        ValidadorExistencias validador = new ValidadorExistencias();
-        List<SolicitudLibro> solicitudes = validador.cargarSolicitudes(rutaSolicitudes);
+    // Sigue Compras.txt y Solicitudes.txt: lo que otras herramientas les añadan llega al catálogo sin reiniciar
+    public VigilanteArchivos vigilarArchivos(Path rutaCompras, Path rutaSolicitudes) throws IOException {
+        // Con partición Compras.txt ya no se usa: solo se sigue Solicitudes.txt
+        VigilanteArchivos nuevo = new VigilanteArchivos(
+                particion == null ? rutaCompras : null, nuevos -> incorporarComprasExternas(nuevos, rutaCompras),
+                rutaSolicitudes, nuevas -> revisarSolicitudesExternas(nuevas, rutaCompras));
+        vigilante = nuevo;
+        nuevo.iniciar();
+        return nuevo;
+    }
 
-        if (solicitudes.isEmpty()) {
-            System.out.println("\nNo hay solicitudes pendientes para realizar.");
-            return;
+    private <R> R escribirSeguido(Path ruta, VigilanteArchivos.Escritura<R> escritura) throws IOException {
+        VigilanteArchivos actual = vigilante;
+        return actual == null ? escritura.ejecutar() : actual.escribir(ruta, escritura);
+    }
+
+    // Libros que otra herramienta añadió a Compras.txt: pasan al catálogo y a los índices como en una compra
+    private void incorporarComprasExternas(List<Libro> nuevos, Path rutaCompras) throws IOException {
+        synchronized (bloqueoArchivos) {
+            for (Libro libro : nuevos) {
+                catalogoDisponibles.agregar(libro);
+                estadisticas.registrarEjemplares(libro);
+                reservas.atender(libro.getId());
+            }
+            IndiceDuplicados indice = obtenerIndiceDuplicados(rutaCompras);
+            indice.registrarTodos(nuevos);
+            indice.guardar();
+            actualizarSnapshot(rutaCompras, nuevos);
         }
+        salida.printf("%nCOMPRAS EXTERNAS: Se añadieron %d libros nuevos al catálogo desde %s.%n", nuevos.size(), rutaCompras.getFileName());
+    }
 
-        List<String> lineasParaEscribir = new ArrayList<>();
-        for (SolicitudLibro solicitud : solicitudes) {
-            // --- CORRECCIÓN AQUÍ: Usamos los getters correspondientes ---
-            String nuevaLinea = String.format("%d;%s;%s;%s;%s;%s;%.2f",
-                    solicitud.getId(),
-                    solicitud.getTitulo(),
-                    solicitud.getAutor(),
-                    solicitud.getGenero(),
-                    solicitud.getFechaPublicacion().format(DateTimeFormatter.ISO_LOCAL_DATE),
-                    solicitud.getEditorial(),
-                    solicitud.getPrecio()
-            );
-            lineasParaEscribir.add(nuevaLinea);
-            pilaLibrosDisponibles.push(solicitud);
+    // Solicitudes que otra herramienta añadió a Solicitudes.txt: se avisa de las que repiten un libro ya comprado
+    private void revisarSolicitudesExternas(List<SolicitudLibro> nuevas, Path rutaCompras) throws IOException {
+        int duplicadas = 0;
+        synchronized (bloqueoArchivos) {
+            IndiceDuplicados indice = obtenerIndiceDuplicados(rutaCompras);
+            for (SolicitudLibro solicitud : nuevas) {
+                if (indice.existe(solicitud)) duplicadas++;
+            }
         }
+        salida.printf("%nSOLICITUDES EXTERNAS: %d solicitudes nuevas en la lista", nuevas.size());
+        salida.println(duplicadas > 0 ? String.format(" (%d repiten libros ya comprados).", duplicadas) : ".");
+    }
 
-        // Añadir las líneas al archivo de compras
-        Files.write(rutaCompras, lineasParaEscribir, StandardOpenOption.APPEND);
+    // Compras.bin se actualiza al cerrar (guardarSnapshot), no en cada compra: mientras tanto se
+    // guardan los libros nuevos y el estado en que quedó Compras.txt tras escribirlos
+    private void actualizarSnapshot(Path rutaCompras, List<? extends Libro> nuevos) {
+        // Los segmentos ya se cargan en paralelo; Compras.bin solo copia Compras.txt
+        if (particion != null || snapshotCompras == null) return;
+        pendientesSnapshot.addAll(nuevos);
+        try {
+            tamañoCompras = Files.size(rutaCompras);
+            modificacionCompras = Files.getLastModifiedTime(rutaCompras).toMillis();
+        } catch (IOException e) {
+            tamañoCompras = -1;
+        }
+    }
 
-        // Limpiar el archivo de solicitudes (dejando solo el encabezado)
-        Files.writeString(rutaSolicitudes, "ID;Título;Autor;Género;Fecha de publicación;Editorial;Precio", StandardOpenOption.TRUNCATE_EXISTING);
+    // Copia binaria de Compras.txt registrada al arrancar desde el texto
+    public void usarSnapshot(SnapshotCatalogo snapshot) {
+        synchronized (bloqueoArchivos) {
+            snapshotCompras = snapshot;
+        }
+    }
 
-        System.out.printf("\nCOMPRA REALIZADA: Se han procesado y añadido %d libros nuevos al catálogo.", solicitudes.size());
-        System.out.println("\nEstos libros ahora están disponibles para ser prestados.");
+    // Agrega a Compras.bin las compras de la sesión. Si Compras.txt cambió después de la última
+    // compra registrada (otra herramienta), no se escribe: el próximo arranque vuelve al texto
+    public void guardarSnapshot(Path rutaCompras) {
+        synchronized (bloqueoArchivos) {
+            if (snapshotCompras == null || pendientesSnapshot.isEmpty()) return;
+            try {
+                if (Files.size(rutaCompras) != tamañoCompras
+                        || Files.getLastModifiedTime(rutaCompras).toMillis() != modificacionCompras) {
+                    return;
+                }
+                snapshotCompras.actualizar(rutaCompras, pendientesSnapshot);
+                pendientesSnapshot.clear();
+            } catch (IOException e) {
+                // Sin copia binaria vigente el próximo arranque vuelve a Compras.txt
+                System.err.println("No se pudo actualizar Compras.bin: " + e.getMessage());
+            }
+        }
+    }
+
+    // El índice se abre una sola vez (desde Compras.txt.idx, o manifiesto.txt.idx con partición, si está vigente)
+    private IndiceDuplicados obtenerIndiceDuplicados(Path rutaCompras) throws IOException {
+        CatalogoParticionado segmentos = particion;
+        Path referencia = segmentos != null ? segmentos.getRutaManifiesto() : rutaCompras;
+        if (indiceDuplicados == null || !indiceDuplicados.getRutaCompras().equals(referencia)) {
+            indiceDuplicados = segmentos != null
+                    ? IndiceDuplicados.abrir(referencia, () -> new ValidadorExistencias().cargarComprasParticionadas(segmentos))
+                    : IndiceDuplicados.abrir(rutaCompras);
+        }
+        return indiceDuplicados;
     }
 
-    // --- El resto de los métodos (prestar, devolver, reporte) no necesitaban esta corrección y permanecen igual ---
+    // Consultas y circulación: van contra el catálogo concurrente y sus contadores, sin bloqueoArchivos
 
     public List<Libro> getLibrosDisponibles() {
-        return new ArrayList<>(pilaLibrosDisponibles);
+        return new ArrayList<>(catalogoDisponibles.libros());
+    }
+
+    // Libros disponibles cuyo título, autor o género empieza por el prefijo ("" para todos), por páginas.
+    // Para la primera página desde == null; para las siguientes, getSiguiente() de la anterior.
+    public PaginaLibros buscarLibrosDisponibles(PaginaLibros.Campo campo, String prefijo, PaginaLibros.Cursor desde, int tamaño) {
+        return catalogoDisponibles.buscarPorPrefijo(campo, prefijo, desde, tamaño);
+    }
+
+    public CatalogoLibros getCatalogoDisponibles() {
+        return catalogoDisponibles;
+    }
+
+    public boolean estaDisponible(int libroId) {
+        return catalogoDisponibles.contiene(libroId);
     }
 
     public boolean prestarLibro(Libro libroSeleccionado, String usuarioId) {
-        boolean removed = pilaLibrosDisponibles.remove(libroSeleccionado);
-        if (removed) {
-            Prestamo nuevoPrestamo = new Prestamo(libroSeleccionado, usuarioId);
-            colaPrestamosActivos.add(nuevoPrestamo);
-            System.out.printf("\nPRÉSTAMO: El libro '%s' ha sido prestado a %s.%n", libroSeleccionado.getTitulo(), usuarioId);
-            return true;
-        } else {
-            System.out.println("\nError: El libro seleccionado ya no se encuentra disponible.");
-            return false;
+        return prestarLibro(libroSeleccionado.getId(), usuarioId);
+    }
+
+    // Comprobar y prestar es atómico: si dos mostradores piden el mismo libro, solo uno lo obtiene
+    public boolean prestarLibro(int libroId, String usuarioId) {
+        long inicio = metricas.iniciar();
+        boolean exito = prestar(libroId, usuarioId);
+        metricas.registrar(Operacion.PRESTAMO, inicio, exito);
+        return exito;
+    }
+
+    private boolean prestar(int libroId, String usuarioId) {
+        Prestamo nuevoPrestamo;
+        bloqueoEstado.readLock().lock();
+        try {
+            // Primero un ejemplar apartado para el usuario; si no, retiro O(1) por ID del catálogo
+            MotorReservas.Apartado apartado = reservas.retirarApartado(libroId, usuarioId);
+            Libro libroSeleccionado = apartado != null ? apartado.getLibro() : catalogoDisponibles.retirar(libroId);
+            if (libroSeleccionado == null) {
+                salida.println("\nError: El libro seleccionado ya no se encuentra disponible.");
+                return false;
+            }
+            nuevoPrestamo = new Prestamo(libroSeleccionado, usuarioId);
+            if (!registrarEnDiario(DiarioPrestamos.Evento.prestamo(nuevoPrestamo))) {
+                if (apartado != null) {
+                    reservas.reponerApartado(apartado);
+                } else {
+                    catalogoDisponibles.devolver(libroSeleccionado);
+                }
+                return false;
+            }
+            prestamosActivos.agregar(nuevoPrestamo);
+            estadisticas.registrarPrestamo(nuevoPrestamo);
+        } finally {
+            bloqueoEstado.readLock().unlock();
         }
+        compactarDiarioSiCorresponde();
+        salida.printf("\nPRÉSTAMO: El libro '%s' ha sido prestado a %s.%n", nuevoPrestamo.getLibro().getTitulo(), usuarioId);
+        return true;
     }
 
-    public void devolverLibro() {
-        if (colaPrestamosActivos.isEmpty()) {
-            System.out.println("\nNo hay préstamos activos para devolver.");
-            return;
+    // Devuelve el préstamo que vence primero
+    public boolean devolverLibro() {
+        return devolver(prestamosActivos::quitarMasAntiguo);
+    }
+
+    // Devuelve el libro entregado en el mostrador, identificado por su ID
+    public boolean devolverLibro(int libroId) {
+        return devolver(() -> prestamosActivos.quitarPorLibro(libroId));
+    }
+
+    // Devuelve todos los libros que tiene prestados el usuario; retorna cuántos se devolvieron
+    public int devolverLibrosDeUsuario(String usuarioId) {
+        int devueltos = 0;
+        for (Prestamo prestamo : prestamosActivos.prestamosDeUsuario(usuarioId)) {
+            int libroId = prestamo.getLibro().getId();
+            // Con varios ejemplares del título, el préstamo de este usuario y no el de otro
+            if (devolver(() -> prestamosActivos.quitarDeUsuario(usuarioId, libroId))) {
+                devueltos++;
+            }
         }
-        Prestamo prestamo = colaPrestamosActivos.poll();
-        prestamo.registrarDevolucion();
-        historialDevoluciones.add(prestamo);
+        return devueltos;
+    }
 
-        Libro libroDevuelto = prestamo.getLibro();
-        pilaLibrosDisponibles.push(libroDevuelto);
+    public List<Prestamo> getPrestamosDeUsuario(String usuarioId) {
+        return prestamosActivos.prestamosDeUsuario(usuarioId);
+    }
 
-        System.out.printf("\nDEVOLUCIÓN: Se ha devuelto el libro '%s'.%n", prestamo.getLibro().getTitulo());
-        System.out.printf("  - Días de retraso: %d%n", prestamo.getDiasRetraso());
-        System.out.printf("  - Multa a pagar: $%.2f%n", prestamo.getMulta());
-        System.out.printf("  - ¡El libro '%s' ahora está disponible nuevamente para préstamo!%n", libroDevuelto.getTitulo());
+    // Préstamos que superaron los Prestamo.DIAS_PRESTAMO_ESTANDAR días a la fecha indicada
+    public List<Prestamo> getPrestamosVencidos(LocalDate fecha) {
+        return prestamosActivos.vencidosAl(fecha);
     }
 
-    public void generarReporteDePrestamos(Path carpetaSalida) throws IOException {
-        if (historialDevoluciones.isEmpty() && colaPrestamosActivos.isEmpty()) {
-            System.out.println("\nNo hay préstamos (activos o devueltos) para generar un reporte.");
+    // Lo que debe el usuario hoy: multas de sus devoluciones (O(1)) y lo acumulado por sus préstamos vencidos
+    public BigDecimal getMultasDeUsuario(String usuarioId) {
+        return BigDecimal.valueOf(motorMultas.getAdeudadoCentavos(usuarioId,
+                prestamosActivos.prestamosDeUsuario(usuarioId), LocalDate.now()), 2);
+    }
+
+    // Lo que debe cada usuario hoy, de mayor a menor; los activos se calculan en una sola pasada
+    public Map<String, BigDecimal> getMultasAdeudadas() {
+        List<Map.Entry<String, Long>> adeudados = new ArrayList<>(
+                motorMultas.getAdeudados(prestamosActivos.prestamos(), LocalDate.now()).entrySet());
+        adeudados.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        Map<String, BigDecimal> resultado = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entrada : adeudados) {
+            resultado.put(entrada.getKey(), BigDecimal.valueOf(entrada.getValue(), 2));
+        }
+        return resultado;
+    }
+
+    // Informe de multas: las del usuario indicado o, con null, las de todos los que deben
+    public void informarMultas(String usuarioId) {
+        if (usuarioId != null) {
+            salida.printf("%nMULTAS: %s debe $%.2f.%n", usuarioId, getMultasDeUsuario(usuarioId));
             return;
         }
+        Map<String, BigDecimal> adeudadas = getMultasAdeudadas();
+        if (adeudadas.isEmpty()) {
+            salida.println("\nNingún usuario tiene multas pendientes.");
+            return;
+        }
+        salida.printf("%nMULTAS: %d usuarios deben (multas cobradas hoy: $%.2f)%n", adeudadas.size(), getMultasDelDia(LocalDate.now()));
+        for (Map.Entry<String, BigDecimal> entrada : adeudadas.entrySet()) {
+            salida.printf("  %s: $%.2f%n", entrada.getKey(), entrada.getValue());
+        }
+    }
+
+    public BigDecimal getMultasDelDia(LocalDate fecha) {
+        return BigDecimal.valueOf(motorMultas.getMultasDelDiaCentavos(fecha), 2);
+    }
+
+    // Pone al usuario en la cola del libro; solo tiene sentido si no queda ningún ejemplar disponible
+    public boolean reservarLibro(int libroId, String usuarioId) {
+        return reservarLibro(libroId, usuarioId, MotorReservas.PRIORIDAD_NORMAL);
+    }
+
+    // A mayor prioridad, antes en la cola (p. ej. para cursos que usan el libro como texto)
+    public boolean reservarLibro(int libroId, String usuarioId, int prioridad) {
+        Libro libro = catalogoDisponibles.buscarPorId(libroId);
+        if (libro == null) {
+            salida.println("\nError: No existe un libro con el ID " + libroId + " en el catálogo.");
+            return false;
+        }
+        if (catalogoDisponibles.contiene(libroId)) {
+            salida.printf("%nHay ejemplares disponibles de '%s': puede pedirlo en préstamo directamente.%n", libro.getTitulo());
+            return false;
+        }
+        if (!reservas.reservar(libroId, usuarioId, prioridad)) {
+            salida.printf("%n%s ya tiene una reserva o un ejemplar apartado de '%s'.%n", usuarioId, libro.getTitulo());
+            return false;
+        }
+        salida.printf("%nRESERVA REGISTRADA: %s está en la lista de espera de '%s' (%d en espera).%n",
+                usuarioId, libro.getTitulo(), reservas.enEspera(libroId));
+        return true;
+    }
+
+    // Solicitud del sistema anterior (sistema.solicitudLibro): ID del libro como texto y el estudiante que lo pide
+    public boolean reservarLibro(solicitudLibro solicitud) {
+        try {
+            return reservarLibro(Integer.parseInt(solicitud.getId().trim()), solicitud.getAutor());
+        } catch (NumberFormatException e) {
+            salida.println("\nError: La solicitud tiene un ID de libro inválido: " + solicitud.getId());
+            return false;
+        }
+    }
+
+    public boolean cancelarReserva(int libroId, String usuarioId) {
+        return reservas.cancelar(libroId, usuarioId);
+    }
+
+    public List<MotorReservas.Apartado> getApartadosDeUsuario(String usuarioId) {
+        return reservas.apartadosDe(usuarioId);
+    }
+
+    // Devoluciones con fecha de devolución en el rango (inclusive); solo se leen los segmentos que lo cubren
+    public List<Prestamo> getDevolucionesEntre(LocalDate desde, LocalDate hasta) throws IOException {
+        return historial.devolucionesEntre(desde, hasta);
+    }
 
-        String fecha = LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE);
-        String nombreArchivo = String.format("Reporte_General_Prestamos_%s.csv", fecha);
-        Path rutaReporte = carpetaSalida.resolve(nombreArchivo);
+    public List<Prestamo> getDevolucionesDeUsuario(String usuarioId) throws IOException {
+        return historial.devolucionesDeUsuario(usuarioId);
+    }
 
-        Files.createDirectories(carpetaSalida);
+    // Contadores de circulación mantenidos en cada préstamo, devolución y compra
+    public EstadisticasCirculacion getEstadisticas() {
+        return estadisticas;
+    }
 
-        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(rutaReporte, StandardCharsets.UTF_8))) {
-            writer.println("ID Libro;Titulo;Autor;Usuario;Fecha Prestamo;Fecha Devolucion;Dias Retraso;Multa;Estado");
+    private boolean devolver(Supplier<Prestamo> seleccion) {
+        long inicio = metricas.iniciar();
+        boolean exito = ejecutarDevolucion(seleccion);
+        metricas.registrar(Operacion.DEVOLUCION, inicio, exito);
+        return exito;
+    }
 
-            for (Prestamo prestamo : historialDevoluciones) {
-                writer.printf("%d;%s;%s;%s;%s;%s;%d;%.2f;Devuelto%n",
-                        prestamo.getLibro().getId(), prestamo.getLibro().getTitulo(), prestamo.getLibro().getAutor(),
-                        prestamo.getUsuarioId(), prestamo.getFechaPrestamo(), prestamo.getFechaDevolucion(),
-                        prestamo.getDiasRetraso(), prestamo.getMulta());
+    private boolean ejecutarDevolucion(Supplier<Prestamo> seleccion) {
+        Prestamo prestamo;
+        bloqueoEstado.readLock().lock();
+        try {
+            prestamo = seleccion.get();
+            if (prestamo == null) {
+                salida.println("\nNo hay un préstamo activo que coincida para devolver.");
+                return false;
+            }
+            LocalDate hoy = LocalDate.now();
+            if (!registrarEnDiario(new DiarioPrestamos.Evento(DiarioPrestamos.TipoEvento.DEVOLUCION,
+                    prestamo.getLibro().getId(), prestamo.getUsuarioId(), prestamo.getFechaPrestamo(), hoy))) {
+                prestamosActivos.agregar(prestamo);
+                return false;
             }
+            prestamo.registrarDevolucion(hoy);
+            historial.agregar(prestamo);
+            motorMultas.registrarDevolucion(prestamo);
+            // Si alguien lo reservó queda apartado para él; si no, vuelve al catálogo. Una reserva
+            // hecha mientras tanto no vio el ejemplar: atender se lo aparta (sin reservas no bloquea)
+            if (!reservas.recibirDevolucion(prestamo.getLibro())) {
+                catalogoDisponibles.devolver(prestamo.getLibro());
+                reservas.atender(prestamo.getLibro().getId());
+            }
+            estadisticas.registrarDevolucion(prestamo);
+        } finally {
+            bloqueoEstado.readLock().unlock();
+        }
+        compactarDiarioSiCorresponde();
+
+        Libro libroDevuelto = prestamo.getLibro();
+
+        salida.printf("\nDEVOLUCIÓN: Se ha devuelto el libro '%s'.%n", prestamo.getLibro().getTitulo());
+        salida.printf("  - Días de retraso: %d%n", prestamo.getDiasRetraso());
+        salida.printf("  - Multa a pagar: $%.2f%n", prestamo.getMulta());
+        if (catalogoDisponibles.contiene(libroDevuelto.getId())) {
+            salida.printf("  - ¡El libro '%s' ahora está disponible nuevamente para préstamo!%n", libroDevuelto.getTitulo());
+        }
+        return true;
+    }
+
+    // Reconstruye préstamos activos e historial a partir del diario y de los segmentos de historial
+    // que confirma su punto de control, y lo deja en uso
+    public void recuperarPrestamos(DiarioPrestamos diarioPrestamos) throws IOException {
+        prestamosActivos.limpiar();
+        HistorialSegmentado recuperado = HistorialSegmentado.abrir(diarioPrestamos.getCarpeta().resolve("Historial"),
+                diarioPrestamos.getSegmentosConfirmados(), this::buscarLibroConocido);
+        int omitidos = 0;
+        for (DiarioPrestamos.Evento evento : diarioPrestamos.getEventosRecuperados()) {
+            switch (evento.getTipo()) {
+                case PRESTAMO: {
+                    Libro libro = catalogoDisponibles.retirar(evento.getLibroId());
+                    if (libro == null) { omitidos++; break; }
+                    prestamosActivos.agregar(new Prestamo(libro, evento.getUsuarioId(), evento.getFechaPrestamo()));
+                    break;
+                }
+                case DEVOLUCION: {
+                    Prestamo prestamo = prestamosActivos.quitarDeUsuario(evento.getUsuarioId(), evento.getLibroId());
+                    if (prestamo == null) { omitidos++; break; }
+                    prestamo.registrarDevolucion(evento.getFechaDevolucion());
+                    recuperado.agregar(prestamo);
+                    catalogoDisponibles.devolver(prestamo.getLibro());
+                    break;
+                }
+                case HISTORICO: {
+                    Libro libro = buscarLibroConocido(evento.getLibroId());
+                    if (libro == null) { omitidos++; break; }
+                    Prestamo prestamo = new Prestamo(libro, evento.getUsuarioId(), evento.getFechaPrestamo());
+                    prestamo.registrarDevolucion(evento.getFechaDevolucion());
+                    recuperado.agregar(prestamo);
+                    break;
+                }
+            }
+        }
+        // Multas y estadísticas: los segmentos aportan sus totales guardados y solo se recorre
+        // lo que está en memoria
+        motorMultas.limpiar();
+        estadisticas.limpiarCirculacion();
+        motorMultas.agregar(recuperado.getTotalesSegmentos());
+        estadisticas.cargarTotales(recuperado.getTotalesSegmentos(), this::buscarLibroConocido);
+        recuperado.recorrer(recuperado.getEnSegmentos(), bloque -> {
+            motorMultas.agregar(bloque);
+            estadisticas.cargarDevoluciones(bloque);
+        });
+        estadisticas.cargarActivos(prestamosActivos.prestamos());
+        this.historial = recuperado;
+        this.diario = diarioPrestamos;
+        salida.printf("Se han recuperado %d préstamos activos y %d devoluciones del diario.%n",
+                prestamosActivos.tamaño(), recuperado.tamaño());
+        if (omitidos > 0) {
+            System.err.printf("Se omitieron %d eventos del diario que no corresponden al catálogo actual.%n", omitidos);
+        }
+    }
 
-            for (Prestamo prestamo : colaPrestamosActivos) {
-                writer.printf("%d;%s;%s;%s;%s;%s;%s;%.2f;%s%n",
-                        prestamo.getLibro().getId(),
-                        prestamo.getLibro().getTitulo(),
-                        prestamo.getLibro().getAutor(),
-                        prestamo.getUsuarioId(),
-                        prestamo.getFechaPrestamo(),
-                        "Pendiente",
-                        "N/A",
-                        0.00,
-                        "Activo"
-                );
+    private Libro buscarLibroConocido(int libroId) {
+        Libro libro = catalogoDisponibles.buscarPorId(libroId);
+        if (libro != null) return libro;
+        Prestamo prestamo = prestamosActivos.buscarPorLibro(libroId);
+        return prestamo == null ? null : prestamo.getLibro();
+    }
+
+    // Sin diario configurado no hay nada que registrar
+    private boolean registrarEnDiario(DiarioPrestamos.Evento evento) {
+        if (diario == null) return true;
+        try {
+            diario.registrarYEsperar(evento);
+            return true;
+        } catch (IOException e) {
+            salida.println("\nError: No se pudo registrar la operación en el diario de préstamos: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Se llama con el estado ya actualizado para que el punto de control incluya el último evento
+    private void compactarDiarioSiCorresponde() {
+        if (diario == null || diario.getEventosDesdeCompactacion() < UMBRAL_COMPACTACION) return;
+        bloqueoEstado.writeLock().lock();
+        try {
+            // Otro hilo pudo haber compactado mientras se esperaba el bloqueo
+            if (diario.getEventosDesdeCompactacion() >= UMBRAL_COMPACTACION) {
+                // Primero las devoluciones antiguas pasan a un segmento; el punto de control lo confirma
+                long ultimoSegmento = historial.derramar();
+                diario.compactar(prestamosActivos.prestamos(), historial.enMemoria(), ultimoSegmento);
             }
+        } catch (IOException e) {
+            System.err.println("No se pudo compactar el diario de préstamos: " + e.getMessage());
+        } finally {
+            bloqueoEstado.writeLock().unlock();
+        }
+    }
+
+    public void generarReporteDePrestamos(Path carpetaSalida) throws IOException {
+        generarReporteDePrestamos(carpetaSalida, false, false);
+    }
+
+    // incremental: añade al reporte del día solo las devoluciones nuevas y reescribe aparte los
+    // préstamos activos (ver GeneradorReportes); comprimido: gzip
+    public void generarReporteDePrestamos(Path carpetaSalida, boolean incremental, boolean comprimido) throws IOException {
+        if (historial.estaVacio() && prestamosActivos.estaVacio()) {
+            salida.println("\nNo hay préstamos (activos o devueltos) para generar un reporte.");
+            return;
+        }
+
+        Path rutaReporte = GeneradorReportes.rutaReporte(carpetaSalida, LocalDate.now(), comprimido);
+        long inicio = metricas.iniciar();
+        boolean exito = false;
+        long filas;
+        try {
+            filas = generadorReportes.generar(rutaReporte, historial, prestamosActivos.prestamos(), incremental);
+            exito = true;
+        } finally {
+            metricas.registrar(Operacion.REPORTE, inicio, exito);
+        }
+        salida.printf("\nREPORTE GENERADO: Se ha guardado el reporte general de préstamos en '%s' (%d filas escritas)%n", rutaReporte.toAbsolutePath(), filas);
+        if (incremental) {
+            salida.printf("  - Préstamos activos en '%s'%n", GeneradorReportes.rutaActivos(rutaReporte).toAbsolutePath());
         }
-        System.out.printf("\nREPORTE GENERADO: Se ha guardado el reporte general de préstamos en '%s'%n", rutaReporte.toAbsolutePath());
     }
 }
\ No newline at end of file
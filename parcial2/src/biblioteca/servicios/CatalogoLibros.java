@@ -0,0 +1,412 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Catálogo seguro para varios mostradores a la vez. Hay una entrada por título con contadores
+// atómicos de ejemplares disponibles y totales: prestar y devolver solo mueven el contador
+// (nunca las estructuras), y dos hilos no pueden llevarse el último ejemplar a la vez.
+public class CatalogoLibros {
+
+    // Un título del catálogo y sus ejemplares
+    private static final class EntradaCatalogo {
+        volatile Libro libro;
+        // Claves con las que está en los índices ordenados, por PaginaLibros.Campo
+        volatile String[] claves;
+        final AtomicInteger disponibles;
+        final AtomicInteger total;
+
+        EntradaCatalogo(Libro libro, String[] claves, int ejemplares) {
+            this.libro = libro;
+            this.claves = claves;
+            this.disponibles = new AtomicInteger(ejemplares);
+            this.total = new AtomicInteger(ejemplares);
+        }
+
+        // Descuenta un ejemplar solo si queda alguno
+        boolean tomarEjemplar() {
+            int actual;
+            do {
+                actual = disponibles.get();
+                if (actual <= 0) return false;
+            } while (!disponibles.compareAndSet(actual, actual - 1));
+            return true;
+        }
+
+        void devolverEjemplar() {
+            disponibles.incrementAndGet();
+        }
+
+        void agregarEjemplares(int cantidad) {
+            total.addAndGet(cantidad);
+            disponibles.addAndGet(cantidad);
+        }
+
+        boolean hayDisponibles() {
+            return disponibles.get() > 0;
+        }
+    }
+
+    // Índice principal por ID
+    private final Map<Integer, EntradaCatalogo> librosPorId = new ConcurrentHashMap<>();
+
+    // Índices secundarios: valor normalizado -> IDs de los libros
+    private final Map<String, Set<Integer>> indicePorAutor = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> indicePorGenero = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> indicePorEditorial = new ConcurrentHashMap<>();
+
+    // Índices ordenados (clave normalizada, ID) para búsqueda por prefijo y paginación
+    private static final class EntradaOrdenada implements Comparable<EntradaOrdenada> {
+        final String clave;
+        final int id;
+
+        EntradaOrdenada(String clave, int id) {
+            this.clave = clave;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(EntradaOrdenada otra) {
+            int porClave = clave.compareTo(otra.clave);
+            return porClave != 0 ? porClave : Integer.compare(id, otra.id);
+        }
+    }
+
+    private final Map<PaginaLibros.Campo, ConcurrentSkipListSet<EntradaOrdenada>> ordenados = new EnumMap<>(PaginaLibros.Campo.class);
+
+    // Clave normalizada de cada autor y género distinto: los títulos que lo comparten (y las
+    // filas de la copia binaria) apuntan a la misma cadena en lugar de una copia por título
+    private final Map<String, String> clavesCompartidas = new ConcurrentHashMap<>();
+
+    // Títulos sin ejemplares disponibles que una página recorre como máximo antes de devolverse incompleta
+    private static final int MAXIMO_SALTADOS_POR_PAGINA = 1024;
+
+    // Copia binaria de la que se materializan títulos a medida que se consultan;
+    // los IDs ya tomados de ella se anotan aparte
+    private volatile SnapshotCatalogo base;
+    private final Set<Integer> retiradosDeBase = ConcurrentHashMap.newKeySet();
+    // Copia binaria cuyas claves ya están en los índices ordenados (sin construir sus Libro)
+    private SnapshotCatalogo baseOrdenada;
+
+    // En modo compacto los títulos se guardan por columnas en el almacén; null para Libro normales
+    private volatile AlmacenColumnar almacen;
+
+    public CatalogoLibros() {
+        for (PaginaLibros.Campo campo : PaginaLibros.Campo.values()) {
+            ordenados.put(campo, new ConcurrentSkipListSet<>());
+        }
+    }
+
+    public void usarAlmacen(AlmacenColumnar almacen) {
+        this.almacen = almacen;
+    }
+
+    public void cargarBase(SnapshotCatalogo snapshot) {
+        limpiar();
+        base = snapshot;
+    }
+
+    // Alta de libro.getEjemplares() ejemplares; si el título ya estaba se suman a los que tenía
+    // y sus datos pasan a ser los del libro nuevo (la fila más reciente de Compras.txt manda)
+    public void agregar(Libro libro) {
+        libro = compactar(libro);
+        EntradaCatalogo entrada = entrada(libro.getId());
+        if (entrada == null) {
+            EntradaCatalogo nueva = new EntradaCatalogo(libro, clavesOrdenadas(libro), libro.getEjemplares());
+            entrada = librosPorId.putIfAbsent(libro.getId(), nueva);
+            if (entrada == null) {
+                indexar(libro, nueva.claves);
+                return;
+            }
+        }
+        reemplazarDatos(entrada, libro);
+        entrada.agregarEjemplares(libro.getEjemplares());
+    }
+
+    // Toma un ejemplar del título en O(1); devuelve null si no quedan disponibles
+    public Libro retirar(int id) {
+        EntradaCatalogo entrada = entrada(id);
+        if (entrada == null || !entrada.tomarEjemplar()) return null;
+        return entrada.libro;
+    }
+
+    // Vuelve a dejar disponible un ejemplar retirado
+    public void devolver(Libro libro) {
+        EntradaCatalogo entrada = entrada(libro.getId());
+        if (entrada == null) {
+            // El catálogo se recargó mientras el ejemplar estaba prestado
+            Libro compacto = compactar(libro);
+            EntradaCatalogo nueva = new EntradaCatalogo(compacto, clavesOrdenadas(compacto), 1);
+            entrada = librosPorId.putIfAbsent(libro.getId(), nueva);
+            if (entrada == null) {
+                indexar(nueva.libro, nueva.claves);
+                return;
+            }
+            entrada.agregarEjemplares(1);
+            return;
+        }
+        entrada.devolverEjemplar();
+    }
+
+    // El título con ese ID, tenga o no ejemplares disponibles
+    public Libro buscarPorId(int id) {
+        EntradaCatalogo entrada = entrada(id);
+        return entrada == null ? null : entrada.libro;
+    }
+
+    // Si queda al menos un ejemplar del título
+    public boolean contiene(int id) {
+        EntradaCatalogo entrada = entrada(id);
+        return entrada != null && entrada.hayDisponibles();
+    }
+
+    public int ejemplaresDisponibles(int id) {
+        EntradaCatalogo entrada = entrada(id);
+        return entrada == null ? 0 : Math.max(0, entrada.disponibles.get());
+    }
+
+    public int ejemplaresTotales(int id) {
+        EntradaCatalogo entrada = entrada(id);
+        return entrada == null ? 0 : entrada.total.get();
+    }
+
+    public List<Libro> buscarPorAutor(String autor) {
+        materializarBase();
+        return resolver(indicePorAutor.get(normalizar(autor)));
+    }
+
+    public List<Libro> buscarPorGenero(String genero) {
+        materializarBase();
+        return resolver(indicePorGenero.get(normalizar(genero)));
+    }
+
+    public List<Libro> buscarPorEditorial(String editorial) {
+        materializarBase();
+        return resolver(indicePorEditorial.get(normalizar(editorial)));
+    }
+
+    // Hasta 'tamaño' libros con ejemplares disponibles cuyo campo empieza por el prefijo (sin
+    // distinguir mayúsculas ni acentos), en orden; desde == null para la primera página.
+    // Solo copia los de la página; de la copia binaria solo se materializan los que se recorren.
+    // Si recorre MAXIMO_SALTADOS_POR_PAGINA títulos sin ejemplares, devuelve la página incompleta
+    // (puede que vacía) con el cursor en el último recorrido.
+    public PaginaLibros buscarPorPrefijo(PaginaLibros.Campo campo, String prefijo, PaginaLibros.Cursor desde, int tamaño) {
+        if (tamaño <= 0) throw new IllegalArgumentException("El tamaño de página debe ser positivo: " + tamaño);
+        ordenarBase();
+        String clavePrefijo = Libro.normalizarTitulo(prefijo);
+        ConcurrentSkipListSet<EntradaOrdenada> indice = ordenados.get(campo);
+        NavigableSet<EntradaOrdenada> resto = desde == null
+                ? indice.tailSet(new EntradaOrdenada(clavePrefijo, Integer.MIN_VALUE), true)
+                : indice.tailSet(new EntradaOrdenada(desde.clave, desde.id), false);
+
+        List<Libro> libros = new ArrayList<>(Math.min(tamaño, 64));
+        EntradaOrdenada ultima = null;
+        int saltados = 0;
+        for (EntradaOrdenada entrada : resto) {
+            if (!entrada.clave.startsWith(clavePrefijo)) break;
+            if (libros.size() == tamaño || saltados == MAXIMO_SALTADOS_POR_PAGINA) {
+                return new PaginaLibros(libros, new PaginaLibros.Cursor(campo, prefijo, ultima.clave, ultima.id));
+            }
+            // Los títulos sin ejemplares disponibles siguen indexados pero no se muestran. Una clave
+            // de la copia binaria puede haber quedado vieja si el título cambió de datos al comprarse:
+            // vale solo si es la misma con la que está indexado el título.
+            EntradaCatalogo titulo = entrada(entrada.id);
+            if (titulo != null && titulo.hayDisponibles() && titulo.claves[campo.ordinal()].equals(entrada.clave)) {
+                libros.add(titulo.libro);
+            } else {
+                saltados++;
+            }
+            ultima = entrada;
+        }
+        return new PaginaLibros(libros, null);
+    }
+
+    // Títulos con al menos un ejemplar disponible. Los que siguen en la copia binaria se leen de
+    // ella para la lista pero no pasan al catálogo: las consultas siguientes no cargan con ellos.
+    public Collection<Libro> libros() {
+        List<Libro> resultado = new ArrayList<>(tamaño());
+        for (EntradaCatalogo entrada : librosPorId.values()) {
+            if (entrada.hayDisponibles()) resultado.add(entrada.libro);
+        }
+        SnapshotCatalogo snapshot = base;
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.getIdsUnicos(); i++) {
+                int id = snapshot.idEnIndice(i);
+                if (snapshot.ejemplaresEnIndice(i) > 0 && !retiradosDeBase.contains(id)) {
+                    resultado.add(snapshot.libro(snapshot.filaEnIndice(i)));
+                }
+            }
+        }
+        return Collections.unmodifiableList(resultado);
+    }
+
+    // Cantidad de títulos del catálogo (prestados o no)
+    public int tamaño() {
+        SnapshotCatalogo snapshot = base;
+        int enBase = snapshot == null ? 0 : snapshot.getIdsUnicos() - retiradosDeBase.size();
+        return librosPorId.size() + enBase;
+    }
+
+    public boolean estaVacio() {
+        return tamaño() == 0;
+    }
+
+    public synchronized void limpiar() {
+        base = null;
+        baseOrdenada = null;
+        retiradosDeBase.clear();
+        librosPorId.clear();
+        indicePorAutor.clear();
+        indicePorGenero.clear();
+        indicePorEditorial.clear();
+        clavesCompartidas.clear();
+        for (ConcurrentSkipListSet<EntradaOrdenada> indice : ordenados.values()) {
+            indice.clear();
+        }
+    }
+
+    // Entrada del título, tomándola de la copia binaria la primera vez que se pide.
+    // computeIfAbsent es atómico por ID: quien llegue mientras otro la materializa espera y la ve.
+    private EntradaCatalogo entrada(int id) {
+        EntradaCatalogo entrada = librosPorId.get(id);
+        if (entrada != null || base == null) return entrada;
+        boolean[] materializada = new boolean[1];
+        entrada = librosPorId.computeIfAbsent(id, clave -> {
+            EntradaCatalogo deBase = reclamarDeBase(clave);
+            materializada[0] = deBase != null;
+            return deBase;
+        });
+        if (materializada[0]) indexar(entrada.libro, entrada.claves);
+        return entrada;
+    }
+
+    // Solo un hilo logra reclamar cada ID de la copia binaria
+    private EntradaCatalogo reclamarDeBase(int id) {
+        SnapshotCatalogo snapshot = base;
+        if (snapshot == null) return null;
+        int fila = snapshot.buscarFila(id);
+        if (fila < 0 || !retiradosDeBase.add(id)) return null;
+        Libro libro = compactar(snapshot.libro(fila));
+        return new EntradaCatalogo(libro, clavesOrdenadas(libro), snapshot.ejemplaresTotales(id));
+    }
+
+    private Libro compactar(Libro libro) {
+        AlmacenColumnar destino = almacen;
+        return destino == null ? libro : destino.agregar(libro);
+    }
+
+    // Las consultas que recorren el catálogo necesitan todos los títulos en memoria
+    private synchronized void materializarBase() {
+        SnapshotCatalogo snapshot = base;
+        if (snapshot == null) return;
+        // En orden de archivo, tomando solo la fila vigente de cada ID
+        for (int fila = 0; fila < snapshot.getFilas(); fila++) {
+            int id = snapshot.idEnFila(fila);
+            if (snapshot.buscarFila(id) == fila) {
+                entrada(id);
+            }
+        }
+        base = null;
+    }
+
+    // Agrega a los índices ordenados las claves de los títulos de la copia binaria, leídas de sus
+    // filas y de la tabla de cadenas (cada cadena se normaliza una vez), sin materializarlos
+    private synchronized void ordenarBase() {
+        SnapshotCatalogo snapshot = base;
+        if (snapshot == null || snapshot == baseOrdenada) return;
+        for (PaginaLibros.Campo campo : PaginaLibros.Campo.values()) {
+            ConcurrentSkipListSet<EntradaOrdenada> indice = ordenados.get(campo);
+            Map<Integer, String> normalizadas = new HashMap<>();
+            for (int i = 0; i < snapshot.getIdsUnicos(); i++) {
+                int id = snapshot.idEnIndice(i);
+                // Los ya materializados se indexaron con sus propios datos
+                if (retiradosDeBase.contains(id)) continue;
+                int codigo = snapshot.codigoEnFila(snapshot.filaEnIndice(i), campo);
+                String clave = normalizadas.computeIfAbsent(codigo, c -> campo == PaginaLibros.Campo.TITULO
+                        ? Libro.normalizarTitulo(snapshot.cadena(c)) : claveCompartida(snapshot.cadena(c)));
+                indice.add(new EntradaOrdenada(clave, id));
+            }
+        }
+        baseOrdenada = snapshot;
+    }
+
+    private void reemplazarDatos(EntradaCatalogo entrada, Libro libro) {
+        synchronized (entrada) {
+            Libro anterior = entrada.libro;
+            if (anterior == libro) return;
+            desindexar(anterior, entrada.claves);
+            String[] claves = clavesOrdenadas(libro);
+            entrada.libro = libro;
+            entrada.claves = claves;
+            indexar(libro, claves);
+        }
+    }
+
+    private void indexar(Libro libro, String[] claves) {
+        indexar(indicePorAutor, libro.getAutor(), libro.getId());
+        indexar(indicePorGenero, libro.getGenero(), libro.getId());
+        indexar(indicePorEditorial, libro.getEditorial(), libro.getId());
+        for (PaginaLibros.Campo campo : PaginaLibros.Campo.values()) {
+            ordenados.get(campo).add(new EntradaOrdenada(claves[campo.ordinal()], libro.getId()));
+        }
+    }
+
+    private void desindexar(Libro libro, String[] claves) {
+        quitarDeIndice(indicePorAutor, libro.getAutor(), libro.getId());
+        quitarDeIndice(indicePorGenero, libro.getGenero(), libro.getId());
+        quitarDeIndice(indicePorEditorial, libro.getEditorial(), libro.getId());
+        for (PaginaLibros.Campo campo : PaginaLibros.Campo.values()) {
+            ordenados.get(campo).remove(new EntradaOrdenada(claves[campo.ordinal()], libro.getId()));
+        }
+    }
+
+    // Se calculan una vez por título (al indexarlo), no en cada búsqueda
+    private String[] clavesOrdenadas(Libro libro) {
+        String[] claves = new String[PaginaLibros.Campo.values().length];
+        claves[PaginaLibros.Campo.TITULO.ordinal()] = libro.getTituloNormalizado();
+        claves[PaginaLibros.Campo.AUTOR.ordinal()] = claveCompartida(libro.getAutor());
+        claves[PaginaLibros.Campo.GENERO.ordinal()] = claveCompartida(libro.getGenero());
+        return claves;
+    }
+
+    private String claveCompartida(String valor) {
+        if (valor == null) return Libro.normalizarTitulo(null);
+        return clavesCompartidas.computeIfAbsent(valor, Libro::normalizarTitulo);
+    }
+
+    private List<Libro> resolver(Set<Integer> ids) {
+        if (ids == null) return Collections.emptyList();
+        List<Libro> resultado = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            EntradaCatalogo entrada = librosPorId.get(id);
+            if (entrada != null && entrada.hayDisponibles()) resultado.add(entrada.libro);
+        }
+        return resultado;
+    }
+
+    private static void indexar(Map<String, Set<Integer>> indice, String valor, int id) {
+        if (valor == null) return;
+        indice.compute(normalizar(valor), (clave, ids) -> {
+            Set<Integer> conjunto = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            conjunto.add(id);
+            return conjunto;
+        });
+    }
+
+    // compute/computeIfPresent son atómicos por clave: un conjunto vacío no se pierde con un alta simultánea
+    private static void quitarDeIndice(Map<String, Set<Integer>> indice, String valor, int id) {
+        if (valor == null) return;
+        indice.computeIfPresent(normalizar(valor), (clave, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static String normalizar(String valor) {
+        return valor == null ? "" : valor.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,306 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+import biblioteca.entidades.SolicitudLibro;
+import biblioteca.metricas.EventoArchivo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Compras repartidas en varios archivos de segmento (por rango de ID o por género) dentro de
+// Existencia/Compras/, con el mismo formato que Compras.txt. Así se cargan en paralelo (ver
+// ValidadorExistencias.cargarComprasParticionadas) y cada compra solo escribe en sus segmentos.
+//
+// manifiesto.txt lista los segmentos con su tamaño confirmado y es el punto de confirmación:
+// una compra añade sus líneas a los segmentos, los sincroniza y luego reemplaza el manifiesto
+// (temporal + rename). Al abrir, lo escrito después del último manifiesto se descarta.
+public class CatalogoParticionado {
+    public enum Criterio { RANGO_ID, GENERO }
+
+    public static final String MANIFIESTO = "manifiesto.txt";
+    public static final int RANGO_POR_DEFECTO = 100_000;
+    private static final String PREFIJO = "Compras-";
+    private static final String VERSION = "MANIFIESTO;1";
+
+    private static final class Segmento {
+        final String archivo;
+        long bytes;
+        long libros;
+
+        Segmento(String archivo, long bytes, long libros) {
+            this.archivo = archivo;
+            this.bytes = bytes;
+            this.libros = libros;
+        }
+    }
+
+    private final Path carpeta;
+    private final Criterio criterio;
+    private final int rango;
+    // Por nombre de archivo: el orden de carga es el de los rangos o el alfabético de los géneros
+    private final TreeMap<String, Segmento> segmentos = new TreeMap<>();
+    private final ValidadorExistencias validador = new ValidadorExistencias();
+
+    private CatalogoParticionado(Path carpeta, Criterio criterio, int rango) {
+        this.carpeta = carpeta;
+        this.criterio = criterio;
+        this.rango = rango;
+    }
+
+    public static Path rutaManifiesto(Path carpeta) {
+        return carpeta.resolve(MANIFIESTO);
+    }
+
+    public static boolean existe(Path carpeta) {
+        return Files.exists(rutaManifiesto(carpeta));
+    }
+
+    // Abre la partición existente; si no la hay, la crea repartiendo los libros de Compras.txt.
+    // Con criterio null solo abre la existente.
+    public static CatalogoParticionado abrirOCrear(Path carpeta, Criterio criterio, Path rutaCompras) throws IOException {
+        if (existe(carpeta)) {
+            CatalogoParticionado existente = abrir(carpeta);
+            if (criterio != null && existente.criterio != criterio) {
+                System.err.printf("Las compras ya están particionadas por %s; se mantiene esa partición.%n", existente.criterio);
+            }
+            return existente;
+        }
+        Files.createDirectories(carpeta);
+        CatalogoParticionado nuevo = new CatalogoParticionado(carpeta, criterio, RANGO_POR_DEFECTO);
+        nuevo.descartarNoConfirmados();
+        List<Libro> existentes = Files.exists(rutaCompras) ? new ValidadorExistencias().cargarCompras(rutaCompras) : List.of();
+        nuevo.agregar(existentes);
+        System.out.printf("Se repartieron %d libros de %s en %d segmentos (%s).%n",
+                existentes.size(), rutaCompras.getFileName(), nuevo.segmentos.size(), criterio);
+        return nuevo;
+    }
+
+    public static CatalogoParticionado abrir(Path carpeta) throws IOException {
+        List<String> lineas = Files.readAllLines(rutaManifiesto(carpeta), StandardCharsets.UTF_8);
+        if (lineas.size() < 2 || !lineas.get(0).equals(VERSION)) {
+            throw new IOException("Manifiesto de compras no válido: " + rutaManifiesto(carpeta));
+        }
+        String[] cabecera = lineas.get(1).split(";");
+        CatalogoParticionado particion = new CatalogoParticionado(carpeta, Criterio.valueOf(cabecera[1]), Integer.parseInt(cabecera[2]));
+        String[] pendiente = null;
+        for (String linea : lineas.subList(2, lineas.size())) {
+            String[] campos = linea.split(";", 3);
+            if (campos[0].equals("segmento")) {
+                String[] valores = campos[2].split(";");
+                particion.segmentos.put(campos[1], new Segmento(campos[1], Long.parseLong(valores[0]), Long.parseLong(valores[1])));
+            } else if (campos[0].equals("confirmar")) {
+                pendiente = campos;
+            }
+        }
+        particion.descartarNoConfirmados();
+        if (pendiente != null) {
+            // La compra se confirmó pero pudo no llegar a quitar de Solicitudes.txt lo comprado
+            String[] rango = pendiente[2].split(";", 2);
+            CompraAtomica.quitarCompradas(Paths.get(rango[1]), Long.parseLong(pendiente[1]), Long.parseLong(rango[0]));
+            particion.guardarManifiesto(null, 0, 0);
+        }
+        return particion;
+    }
+
+    public Criterio getCriterio() { return criterio; }
+    public Path getRutaManifiesto() { return rutaManifiesto(carpeta); }
+
+    // Segmentos en orden, para cargarlos
+    public synchronized List<Path> getSegmentos() {
+        List<Path> rutas = new ArrayList<>(segmentos.size());
+        for (String archivo : segmentos.keySet()) {
+            rutas.add(carpeta.resolve(archivo));
+        }
+        return rutas;
+    }
+
+    public synchronized long getTotalLibros() {
+        long total = 0;
+        for (Segmento segmento : segmentos.values()) {
+            total += segmento.libros;
+        }
+        return total;
+    }
+
+    // Añade los libros a sus segmentos y confirma
+    public synchronized void agregar(List<? extends Libro> libros) throws IOException {
+        Map<String, FileChannel> abiertos = new HashMap<>();
+        Map<String, long[]> nuevos = new HashMap<>();
+        try {
+            escribir(libros, abiertos, nuevos);
+            sincronizar(abiertos);
+        } catch (IOException | RuntimeException e) {
+            cerrar(abiertos);
+            descartarNoConfirmados();
+            throw e;
+        }
+        cerrar(abiertos);
+        aplicar(nuevos);
+        guardarManifiesto(null, 0, 0);
+    }
+
+    // Pasa las solicitudes a los segmentos por lotes, igual que CompraAtomica con Compras.txt:
+    // se confirma con el manifiesto, que anota también el rango comprado de Solicitudes.txt para
+    // quitarlo si el proceso se cae antes de hacerlo. Devuelve cuántos libros se compraron (0 si
+    // no había solicitudes); ya confirmados, se entregan al receptor por lotes.
+    public synchronized int comprar(Path rutaSolicitudes, LectorArchivoLibros.ConsumidorLote<SolicitudLibro> receptor) throws IOException {
+        int[] comprados = {0};
+        Map<String, FileChannel> abiertos = new HashMap<>();
+        Map<String, long[]> nuevos = new HashMap<>();
+        long finSolicitudes = Files.size(rutaSolicitudes);
+        long crcSolicitudes = CompraAtomica.crc(rutaSolicitudes, finSolicitudes);
+        EventoArchivo evento = EventoArchivo.iniciar("COMPRA", getRutaManifiesto());
+        try {
+            validador.cargarSolicitudesPorLotes(rutaSolicitudes, CompraAtomica.TAMAÑO_LOTE, finSolicitudes, lote -> {
+                escribir(lote, abiertos, nuevos);
+                comprados[0] += lote.size();
+            });
+            sincronizar(abiertos);
+        } catch (IOException | RuntimeException e) {
+            cerrar(abiertos);
+            descartarNoConfirmados();
+            throw e;
+        }
+        cerrar(abiertos);
+        if (comprados[0] == 0) return 0;
+
+        long bytes = aplicar(nuevos);
+        guardarManifiesto(rutaSolicitudes, finSolicitudes, crcSolicitudes);
+        evento.terminar(bytes, comprados[0], true);
+        try {
+            CompraAtomica.entregarConfirmadas(validador, rutaSolicitudes, finSolicitudes, receptor);
+        } finally {
+            CompraAtomica.quitarCompradas(rutaSolicitudes, finSolicitudes, crcSolicitudes);
+            guardarManifiesto(null, 0, 0);
+        }
+        return comprados[0];
+    }
+
+    // Escribe cada libro al final de su segmento; 'nuevos' acumula bytes y libros por segmento
+    private void escribir(List<? extends Libro> libros, Map<String, FileChannel> abiertos, Map<String, long[]> nuevos) throws IOException {
+        Map<String, StringBuilder> porSegmento = new HashMap<>();
+        String finLinea = System.lineSeparator();
+        for (Libro libro : libros) {
+            String archivo = archivoPara(libro);
+            StringBuilder sb = porSegmento.computeIfAbsent(archivo, a -> new StringBuilder());
+            CompraAtomica.agregarLinea(sb, libro);
+            sb.append(finLinea);
+            nuevos.computeIfAbsent(archivo, a -> new long[2])[1]++;
+        }
+        for (Map.Entry<String, StringBuilder> entrada : porSegmento.entrySet()) {
+            String archivo = entrada.getKey();
+            FileChannel canal = abiertos.get(archivo);
+            if (canal == null) {
+                canal = abrirSegmento(archivo);
+                abiertos.put(archivo, canal);
+            }
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(entrada.getValue().toString());
+            nuevos.get(archivo)[0] += bytes.remaining();
+            while (bytes.hasRemaining()) {
+                canal.write(bytes, canal.size());
+            }
+        }
+    }
+
+    private FileChannel abrirSegmento(String archivo) throws IOException {
+        Path ruta = carpeta.resolve(archivo);
+        FileChannel canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        Segmento segmento = segmentos.get(archivo);
+        // Se parte del tamaño confirmado (lo demás es de una escritura que no se confirmó)
+        canal.truncate(segmento == null ? 0 : segmento.bytes);
+        if (segmento == null) {
+            ByteBuffer encabezado = StandardCharsets.UTF_8.encode(CompraAtomica.ENCABEZADO + System.lineSeparator());
+            while (encabezado.hasRemaining()) {
+                canal.write(encabezado, canal.size());
+            }
+        }
+        return canal;
+    }
+
+    // Incorpora lo escrito a los segmentos en memoria; devuelve los bytes añadidos
+    private long aplicar(Map<String, long[]> nuevos) throws IOException {
+        long total = 0;
+        for (Map.Entry<String, long[]> entrada : nuevos.entrySet()) {
+            String archivo = entrada.getKey();
+            long bytes = Files.size(carpeta.resolve(archivo));
+            Segmento segmento = segmentos.get(archivo);
+            if (segmento == null) {
+                segmentos.put(archivo, new Segmento(archivo, bytes, entrada.getValue()[1]));
+            } else {
+                segmento.bytes = bytes;
+                segmento.libros += entrada.getValue()[1];
+            }
+            total += entrada.getValue()[0];
+        }
+        return total;
+    }
+
+    private String archivoPara(Libro libro) {
+        if (criterio == Criterio.RANGO_ID) {
+            return String.format("%s%06d.txt", PREFIJO, Math.floorDiv(libro.getId(), rango));
+        }
+        String genero = Libro.normalizarTitulo(libro.getGenero()).replace(' ', '_');
+        if (genero.length() > 40) genero = genero.substring(0, 40);
+        return PREFIJO + (genero.isEmpty() ? "sin_genero" : genero) + ".txt";
+    }
+
+    // Deja cada segmento en su tamaño confirmado y borra los que no están en el manifiesto
+    private void descartarNoConfirmados() throws IOException {
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(carpeta, PREFIJO + "*.txt")) {
+            for (Path archivo : archivos) {
+                Segmento segmento = segmentos.get(archivo.getFileName().toString());
+                if (segmento == null) {
+                    Files.delete(archivo);
+                } else if (Files.size(archivo) > segmento.bytes) {
+                    try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.WRITE)) {
+                        canal.truncate(segmento.bytes);
+                        canal.force(true);
+                    }
+                }
+            }
+        }
+    }
+
+    private void guardarManifiesto(Path solicitudesPendientes, long finSolicitudes, long crcSolicitudes) throws IOException {
+        StringBuilder sb = new StringBuilder(VERSION).append('\n');
+        sb.append("criterio;").append(criterio).append(';').append(rango).append('\n');
+        for (Segmento segmento : segmentos.values()) {
+            sb.append("segmento;").append(segmento.archivo).append(';')
+                    .append(segmento.bytes).append(';').append(segmento.libros).append('\n');
+        }
+        if (solicitudesPendientes != null) {
+            sb.append("confirmar;").append(finSolicitudes).append(';').append(crcSolicitudes).append(';')
+                    .append(solicitudesPendientes.toAbsolutePath()).append('\n');
+        }
+        Path manifiesto = getRutaManifiesto();
+        Path temporal = manifiesto.resolveSibling(MANIFIESTO + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(sb.toString());
+            while (bytes.hasRemaining()) {
+                canal.write(bytes);
+            }
+            canal.force(true);
+        }
+        Files.move(temporal, manifiesto, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void sincronizar(Map<String, FileChannel> abiertos) throws IOException {
+        for (FileChannel canal : abiertos.values()) {
+            canal.force(true);
+        }
+    }
+
+    private static void cerrar(Map<String, FileChannel> abiertos) {
+        for (FileChannel canal : abiertos.values()) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // Solo se cierra; el error real ya se informó o se informará al confirmar
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+import biblioteca.entidades.SolicitudLibro;
+import biblioteca.metricas.EventoArchivo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Pasa las solicitudes a Compras.txt de forma atómica y por lotes:
+//   1. marca Compras.txt.compra con el tamaño original de Compras.txt y el rango comprado de
+//      Solicitudes.txt (sus primeros N bytes, con su CRC32)
+//   2. añade las solicitudes de ese rango a Compras.txt lote a lote y lo sincroniza con el disco
+//   3. añade a la marca el registro de confirmación; este es el punto de confirmación
+//   4. quita de Solicitudes.txt el rango comprado (temporal + rename), conservando lo que otra
+//      herramienta haya añadido después, y borra la marca
+// Si el proceso se cae antes del paso 3, recuperar() deja Compras.txt como estaba; después
+// del paso 3 la compra ya está hecha y recuperar() termina el paso 4. El CRC del rango indica si
+// Solicitudes.txt todavía lo tiene al principio, así quitarlo dos veces no borra nada más.
+public class CompraAtomica {
+    public static final String ENCABEZADO = "ID;Título;Autor;Género;Fecha de publicación;Editorial;Precio";
+    public static final int TAMAÑO_LOTE = 1024;
+    private static final String CONFIRMADA = "confirmada";
+
+    private final Path rutaSolicitudes;
+    private final Path rutaCompras;
+    private final ValidadorExistencias validador = new ValidadorExistencias();
+
+    public CompraAtomica(Path rutaSolicitudes, Path rutaCompras) {
+        this.rutaSolicitudes = rutaSolicitudes;
+        this.rutaCompras = rutaCompras;
+    }
+
+    public static Path rutaMarca(Path rutaCompras) {
+        return rutaCompras.resolveSibling(rutaCompras.getFileName() + ".compra");
+    }
+
+    // Completa o deshace una compra interrumpida. Devuelve true si había una marca pendiente.
+    public static boolean recuperar(Path rutaCompras) throws IOException {
+        Path marca = rutaMarca(rutaCompras);
+        if (!Files.exists(marca)) return false;
+        List<String> lineas = Files.readAllLines(marca, StandardCharsets.UTF_8);
+        if (lineas.size() < 2) {
+            // La marca se escribe antes de tocar Compras.txt: si está incompleta, no se añadió nada
+            Files.delete(marca);
+            return true;
+        }
+        long longitudCompras = Long.parseLong(lineas.get(0));
+        String[] rango = lineas.get(1).split(";", 3);
+
+        if (lineas.size() > 2 && lineas.get(2).equals(CONFIRMADA)) {
+            // Confirmada: solo faltaba quitar las solicitudes compradas
+            quitarCompradas(Paths.get(rango[2]), Long.parseLong(rango[0]), Long.parseLong(rango[1]));
+        } else if (Files.exists(rutaCompras) && Files.size(rutaCompras) > longitudCompras) {
+            // Sin confirmar: se quitan las líneas añadidas a Compras.txt
+            try (FileChannel canal = FileChannel.open(rutaCompras, StandardOpenOption.WRITE)) {
+                canal.truncate(longitudCompras);
+                canal.force(true);
+            }
+            System.err.printf("Se deshizo una compra interrumpida: '%s' vuelve a %d bytes.%n", rutaCompras.getFileName(), longitudCompras);
+        }
+        Files.delete(marca);
+        return true;
+    }
+
+    // Devuelve cuántos libros se compraron (0 si no había solicitudes). Ya confirmada la compra,
+    // el rango comprado de Solicitudes.txt se vuelve a leer por lotes para entregárselos al
+    // receptor: antes del punto de confirmación ningún lote es definitivo y así no hace falta
+    // guardar la compra entera en memoria.
+    public int ejecutar(LectorArchivoLibros.ConsumidorLote<SolicitudLibro> receptor) throws IOException {
+        recuperar(rutaCompras);
+        Path marca = rutaMarca(rutaCompras);
+        int[] comprados = {0};
+        long longitudCompras = Files.size(rutaCompras);
+        // Se compra lo que hay ahora; lo que se añada mientras tanto queda para la próxima compra
+        long finSolicitudes = Files.size(rutaSolicitudes);
+        long crcSolicitudes = crc(rutaSolicitudes, finSolicitudes);
+
+        EventoArchivo evento = EventoArchivo.iniciar("COMPRA", rutaCompras);
+        try (FileChannel canal = FileChannel.open(rutaCompras, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            StringBuilder sb = new StringBuilder(TAMAÑO_LOTE * 96);
+            String finLinea = System.lineSeparator();
+            // Si el archivo termina sin salto (p. ej. solo el encabezado), la primera línea no debe pegarse
+            boolean separarPrimera = !terminaEnSalto(canal);
+
+            validador.cargarSolicitudesPorLotes(rutaSolicitudes, TAMAÑO_LOTE, finSolicitudes, lote -> {
+                sb.setLength(0);
+                if (comprados[0] == 0) {
+                    escribirMarca(marca, longitudCompras + "\n" + finSolicitudes + ";" + crcSolicitudes + ";"
+                            + rutaSolicitudes.toAbsolutePath() + "\n", false);
+                    if (separarPrimera) sb.append(finLinea);
+                }
+                for (SolicitudLibro solicitud : lote) {
+                    agregarLinea(sb, solicitud);
+                    sb.append(finLinea);
+                }
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(sb.toString());
+                while (bytes.hasRemaining()) {
+                    canal.write(bytes, canal.size());
+                }
+                comprados[0] += lote.size();
+            });
+            if (comprados[0] == 0) return 0;
+            canal.force(true);
+            evento.terminar(canal.size() - longitudCompras, comprados[0], true);
+            // Punto de confirmación
+            escribirMarca(marca, CONFIRMADA + "\n", true);
+        } catch (IOException | RuntimeException e) {
+            if (comprados[0] > 0) deshacer(marca, longitudCompras);
+            throw e;
+        }
+
+        // La compra ya está hecha aunque el receptor falle: se termina de todos modos
+        try {
+            entregarConfirmadas(validador, rutaSolicitudes, finSolicitudes, receptor);
+        } finally {
+            quitarCompradas(rutaSolicitudes, finSolicitudes, crcSolicitudes);
+            Files.deleteIfExists(marca);
+        }
+        return comprados[0];
+    }
+
+    // Relee por lotes los primeros 'fin' bytes de Solicitudes.txt, ya comprados; mismas líneas y
+    // mismo resultado que al escribirlos
+    static void entregarConfirmadas(ValidadorExistencias validador, Path rutaSolicitudes, long fin,
+                                    LectorArchivoLibros.ConsumidorLote<SolicitudLibro> receptor) throws IOException {
+        validador.cargarSolicitudesPorLotes(rutaSolicitudes, TAMAÑO_LOTE, fin, receptor);
+    }
+
+    // CRC32 de los primeros 'hasta' bytes del archivo
+    static long crc(Path ruta, long hasta) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] bloque = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(ruta)) {
+            long restante = hasta;
+            while (restante > 0) {
+                int leidos = in.read(bloque, 0, (int) Math.min(bloque.length, restante));
+                if (leidos < 0) break;
+                crc.update(bloque, 0, leidos);
+                restante -= leidos;
+            }
+        }
+        return crc.getValue();
+    }
+
+    // Quita de Solicitudes.txt los primeros 'fin' bytes ya comprados y deja el encabezado y lo que
+    // se añadió después. Si el archivo ya no empieza por ese rango (se quitó antes) no hace nada.
+    static void quitarCompradas(Path rutaSolicitudes, long fin, long crcComprado) throws IOException {
+        if (!Files.exists(rutaSolicitudes) || Files.size(rutaSolicitudes) < fin
+                || crc(rutaSolicitudes, fin) != crcComprado) {
+            return;
+        }
+        byte[] restantes;
+        try (InputStream in = Files.newInputStream(rutaSolicitudes)) {
+            in.skipNBytes(fin);
+            restantes = in.readAllBytes();
+        }
+        Path temporal = rutaSolicitudes.resolveSibling(rutaSolicitudes.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            String encabezado = ENCABEZADO;
+            // Las líneas añadidas pueden no empezar con salto: no deben pegarse al encabezado
+            if (restantes.length > 0 && restantes[0] != '\n' && restantes[0] != '\r') {
+                encabezado += System.lineSeparator();
+            }
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(encabezado);
+            while (bytes.hasRemaining()) {
+                canal.write(bytes);
+            }
+            ByteBuffer resto = ByteBuffer.wrap(restantes);
+            while (resto.hasRemaining()) {
+                canal.write(resto);
+            }
+            canal.force(true);
+        }
+        Files.move(temporal, rutaSolicitudes, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deshacer(Path marca, long longitudCompras) {
+        try (FileChannel canal = FileChannel.open(rutaCompras, StandardOpenOption.WRITE)) {
+            canal.truncate(longitudCompras);
+            canal.force(true);
+            Files.deleteIfExists(marca);
+        } catch (IOException e) {
+            // La marca sigue ahí: recuperar() lo reintenta en la próxima compra o al arrancar
+            System.err.println("No se pudo deshacer la compra interrumpida: " + e.getMessage());
+        }
+    }
+
+    private static void escribirMarca(Path marca, String contenido, boolean añadir) throws IOException {
+        try (FileChannel canal = añadir
+                ? FileChannel.open(marca, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(marca, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(contenido);
+            while (bytes.hasRemaining()) {
+                canal.write(bytes);
+            }
+            canal.force(true);
+        }
+    }
+
+    private static boolean terminaEnSalto(FileChannel canal) throws IOException {
+        long tamaño = canal.size();
+        if (tamaño == 0) return true;
+        ByteBuffer ultimo = ByteBuffer.allocate(1);
+        canal.read(ultimo, tamaño - 1);
+        return ultimo.get(0) == '\n';
+    }
+
+    // Misma línea que producía String.format("%d;%s;%s;%s;%s;%s;%.2f"), sin depender de la configuración regional.
+    // La cantidad de ejemplares solo se escribe si no es 1, así los archivos anteriores siguen igual.
+    static void agregarLinea(StringBuilder sb, Libro libro) {
+        sb.append(libro.getId()).append(';')
+                .append(libro.getTitulo()).append(';')
+                .append(libro.getAutor()).append(';')
+                .append(libro.getGenero()).append(';')
+                .append(libro.getFechaPublicacion().format(DateTimeFormatter.ISO_LOCAL_DATE)).append(';')
+                .append(libro.getEditorial()).append(';')
+                .append(libro.getPrecio().setScale(2, RoundingMode.HALF_UP).toPlainString());
+        if (libro.getEjemplares() != 1) {
+            sb.append(';').append(libro.getEjemplares());
+        }
+    }
+}
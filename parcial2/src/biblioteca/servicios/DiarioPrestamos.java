@@ -0,0 +1,410 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Prestamo;
+import biblioteca.metricas.EventoArchivo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Diario de préstamos y devoluciones (Prestamos.log) que se reproduce al arrancar.
+// Cada registro lleva su CRC32; un hilo escritor agrupa los registros pendientes y hace
+// un único fsync por lote. Al compactar, el estado completo pasa a Prestamos.chk y el
+// diario vuelve a empezar con una nueva generación. Las devoluciones que ya pasaron a los
+// segmentos de HistorialSegmentado no se copian: el punto de control guarda solo el número
+// del último segmento que las contiene.
+public class DiarioPrestamos implements Closeable {
+
+    public enum TipoEvento { PRESTAMO, DEVOLUCION, HISTORICO }
+
+    public static class Evento {
+        private final TipoEvento tipo;
+        private final int libroId;
+        private final String usuarioId;
+        private final LocalDate fechaPrestamo;
+        private final LocalDate fechaDevolucion;
+
+        public Evento(TipoEvento tipo, int libroId, String usuarioId, LocalDate fechaPrestamo, LocalDate fechaDevolucion) {
+            this.tipo = tipo;
+            this.libroId = libroId;
+            this.usuarioId = usuarioId;
+            this.fechaPrestamo = fechaPrestamo;
+            this.fechaDevolucion = fechaDevolucion;
+        }
+
+        public static Evento prestamo(Prestamo prestamo) {
+            return new Evento(TipoEvento.PRESTAMO, prestamo.getLibro().getId(), prestamo.getUsuarioId(), prestamo.getFechaPrestamo(), null);
+        }
+
+        public static Evento devolucion(Prestamo prestamo) {
+            return new Evento(TipoEvento.DEVOLUCION, prestamo.getLibro().getId(), prestamo.getUsuarioId(), prestamo.getFechaPrestamo(), prestamo.getFechaDevolucion());
+        }
+
+        static Evento historico(Prestamo prestamo) {
+            return new Evento(TipoEvento.HISTORICO, prestamo.getLibro().getId(), prestamo.getUsuarioId(), prestamo.getFechaPrestamo(), prestamo.getFechaDevolucion());
+        }
+
+        public TipoEvento getTipo() { return tipo; }
+        public int getLibroId() { return libroId; }
+        public String getUsuarioId() { return usuarioId; }
+        public LocalDate getFechaPrestamo() { return fechaPrestamo; }
+        public LocalDate getFechaDevolucion() { return fechaDevolucion; }
+    }
+
+    private static final int MAGICO_DIARIO = 0x44505245; // "DPRE"
+    private static final int MAGICO_PUNTO = 0x43505245;  // "CPRE", sin segmentos de historial
+    private static final int MAGICO_PUNTO_SEGMENTADO = 0x43505232;  // "CPR2"
+    private static final int TAMAÑO_ENCABEZADO = 12;
+    private static final int MAXIMO_LOTE = 1024;
+    private static final int SIN_FECHA = Integer.MIN_VALUE;
+
+    private static final class Pendiente {
+        final byte[] registro;
+        final CompletableFuture<Void> confirmacion = new CompletableFuture<>();
+
+        Pendiente(byte[] registro) {
+            this.registro = registro;
+        }
+    }
+
+    private static final Pendiente FIN = new Pendiente(new byte[0]);
+
+    private final Path rutaDiario;
+    private final Path rutaPunto;
+    private final Object bloqueo = new Object();
+    // Hace atómicos la comprobación de cerrado y el encolado: nada entra en la cola después de FIN
+    private final Object bloqueoCola = new Object();
+    private final BlockingQueue<Pendiente> cola = new LinkedBlockingQueue<>();
+    private final List<Evento> eventosRecuperados = new ArrayList<>();
+    private final Thread escritor;
+    private FileChannel canal;
+    private long generacion;
+    private long eventosDesdeCompactacion;
+    private long segmentosConfirmados;
+    private boolean cerrado;
+    // Lote que falló y no se pudo quitar del diario: a partir de ahí no se añade nada más
+    private IOException fallo;
+
+    private final Path carpeta;
+
+    private DiarioPrestamos(Path carpeta) {
+        this.carpeta = carpeta;
+        this.rutaDiario = carpeta.resolve("Prestamos.log");
+        this.rutaPunto = carpeta.resolve("Prestamos.chk");
+        this.escritor = new Thread(this::escribirLotes, "diario-prestamos");
+        this.escritor.setDaemon(true);
+    }
+
+    // Abre el diario, recupera el punto de control y los eventos posteriores, y descarta
+    // un posible registro incompleto al final (escritura interrumpida)
+    public static DiarioPrestamos abrir(Path carpeta) throws IOException {
+        DiarioPrestamos diario = new DiarioPrestamos(carpeta);
+        diario.recuperar();
+        diario.escritor.start();
+        return diario;
+    }
+
+    public List<Evento> getEventosRecuperados() {
+        return Collections.unmodifiableList(eventosRecuperados);
+    }
+
+    public Path getCarpeta() {
+        return carpeta;
+    }
+
+    // Último segmento de historial cuyas devoluciones no están en el punto de control
+    public long getSegmentosConfirmados() {
+        synchronized (bloqueo) {
+            return segmentosConfirmados;
+        }
+    }
+
+    public long getEventosDesdeCompactacion() {
+        synchronized (bloqueo) {
+            return eventosDesdeCompactacion;
+        }
+    }
+
+    // Encola el evento; el futuro se completa cuando el lote que lo contiene está en disco
+    public CompletableFuture<Void> registrar(Evento evento) {
+        Pendiente pendiente = new Pendiente(codificar(evento));
+        synchronized (bloqueoCola) {
+            if (cerrado) {
+                pendiente.confirmacion.completeExceptionally(new IOException("El diario de préstamos está cerrado"));
+                return pendiente.confirmacion;
+            }
+            cola.add(pendiente);
+        }
+        return pendiente.confirmacion;
+    }
+
+    // Registra y espera a que el evento sea durable
+    public void registrarYEsperar(Evento evento) throws IOException {
+        try {
+            registrar(evento).join();
+        } catch (RuntimeException e) {
+            Throwable causa = e.getCause() != null ? e.getCause() : e;
+            throw causa instanceof IOException ? (IOException) causa : new IOException(causa);
+        }
+    }
+
+    // Guarda el estado completo como punto de control y reinicia el diario.
+    // El llamador debe garantizar que el estado incluye todos los eventos ya registrados.
+    // historial son las devoluciones posteriores al segmento ultimoSegmento (ya escrito en disco).
+    public void compactar(Collection<Prestamo> activos, Collection<Prestamo> historial, long ultimoSegmento) throws IOException {
+        synchronized (bloqueo) {
+            long posicion = canal.size();
+            Path temporal = rutaPunto.resolveSibling(rutaPunto.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+                out.writeInt(MAGICO_PUNTO_SEGMENTADO);
+                out.writeLong(generacion);
+                out.writeLong(posicion);
+                out.writeLong(ultimoSegmento);
+                out.writeInt(activos.size() + historial.size());
+                for (Prestamo prestamo : historial) {
+                    out.write(codificar(Evento.historico(prestamo)));
+                }
+                for (Prestamo prestamo : activos) {
+                    out.write(codificar(Evento.prestamo(prestamo)));
+                }
+            }
+            forzar(temporal);
+            Files.move(temporal, rutaPunto, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            segmentosConfirmados = ultimoSegmento;
+
+            // Un diario nuevo de la siguiente generación reemplaza al anterior. Se abre antes de
+            // moverlo y el canal solo se cambia si todo salió bien: si falla, se sigue escribiendo
+            // en el diario actual, que es el que indica el punto de control
+            Path diarioNuevo = rutaDiario.resolveSibling(rutaDiario.getFileName() + ".tmp");
+            escribirEncabezado(diarioNuevo, generacion + 1);
+            FileChannel nuevo = FileChannel.open(diarioNuevo, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            try {
+                nuevo.position(nuevo.size());
+                Files.move(diarioNuevo, rutaDiario, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                nuevo.close();
+                Files.deleteIfExists(diarioNuevo);
+                throw e;
+            }
+            FileChannel anterior = canal;
+            canal = nuevo;
+            generacion++;
+            eventosDesdeCompactacion = 0;
+            try {
+                anterior.close();
+            } catch (IOException e) {
+                // Ya reemplazado: no queda nada por escribir en él
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (bloqueoCola) {
+            if (cerrado) return;
+            cerrado = true;
+            cola.add(FIN);
+        }
+        try {
+            escritor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (bloqueo) {
+            canal.close();
+        }
+    }
+
+    private void escribirLotes() {
+        List<Pendiente> lote = new ArrayList<>(MAXIMO_LOTE);
+        boolean terminar = false;
+        while (!terminar) {
+            try {
+                lote.add(cola.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            cola.drainTo(lote, MAXIMO_LOTE - 1);
+            // close() encola FIN: se escribe lo anterior y el hilo termina
+            terminar = lote.remove(FIN);
+            if (lote.isEmpty()) continue;
+            try {
+                int total = 0;
+                for (Pendiente pendiente : lote) total += pendiente.registro.length;
+                ByteBuffer buffer = ByteBuffer.allocate(total);
+                for (Pendiente pendiente : lote) buffer.put(pendiente.registro);
+                buffer.flip();
+                EventoArchivo evento = EventoArchivo.iniciar("DIARIO", rutaDiario);
+                synchronized (bloqueo) {
+                    escribirLote(buffer);
+                    eventosDesdeCompactacion += lote.size();
+                }
+                evento.terminar(total, lote.size(), true);
+                for (Pendiente pendiente : lote) pendiente.confirmacion.complete(null);
+            } catch (IOException e) {
+                for (Pendiente pendiente : lote) pendiente.confirmacion.completeExceptionally(e);
+            }
+            lote.clear();
+        }
+        // Si el hilo terminó por una interrupción, lo que quedó en la cola no se va a escribir
+        cola.drainTo(lote);
+        IOException error = new IOException("El diario de préstamos está cerrado");
+        for (Pendiente pendiente : lote) pendiente.confirmacion.completeExceptionally(error);
+    }
+
+    // Con bloqueo tomado. Si la escritura falla, el diario vuelve a donde empezaba el lote: un
+    // registro a medias cortaría la reproducción y se perderían los lotes confirmados después
+    private void escribirLote(ByteBuffer buffer) throws IOException {
+        if (fallo != null) throw new IOException("El diario de préstamos no está disponible", fallo);
+        long inicio = canal.position();
+        try {
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(false);
+        } catch (IOException e) {
+            try {
+                canal.truncate(inicio);
+                canal.position(inicio);
+                canal.force(false);
+            } catch (IOException | RuntimeException e2) {
+                e.addSuppressed(e2);
+                fallo = e;
+            }
+            throw e;
+        }
+    }
+
+    private void recuperar() throws IOException {
+        long generacionPunto = -1;
+        long posicionPunto = TAMAÑO_ENCABEZADO;
+        if (Files.exists(rutaPunto)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(rutaPunto), 1 << 16))) {
+                int magico = in.readInt();
+                if (magico != MAGICO_PUNTO && magico != MAGICO_PUNTO_SEGMENTADO) {
+                    throw new IOException("Punto de control de préstamos inválido: " + rutaPunto);
+                }
+                generacionPunto = in.readLong();
+                posicionPunto = in.readLong();
+                segmentosConfirmados = magico == MAGICO_PUNTO_SEGMENTADO ? in.readLong() : 0;
+                int total = in.readInt();
+                for (int i = 0; i < total; i++) {
+                    byte[] contenido = leerRegistro(in);
+                    if (contenido == null) throw new IOException("Punto de control de préstamos dañado: " + rutaPunto);
+                    eventosRecuperados.add(decodificar(contenido));
+                }
+            }
+        }
+
+        if (!Files.exists(rutaDiario)) {
+            escribirEncabezado(rutaDiario, Math.max(generacionPunto + 1, 0));
+        }
+        canal = FileChannel.open(rutaDiario, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        ByteBuffer encabezado = ByteBuffer.allocate(TAMAÑO_ENCABEZADO);
+        canal.read(encabezado, 0);
+        encabezado.flip();
+        if (encabezado.remaining() < TAMAÑO_ENCABEZADO || encabezado.getInt() != MAGICO_DIARIO) {
+            throw new IOException("Diario de préstamos inválido: " + rutaDiario);
+        }
+        generacion = encabezado.getLong();
+
+        // Si el punto de control cubre parte de esta generación, se continúa desde ahí
+        long desde = generacion == generacionPunto ? posicionPunto : TAMAÑO_ENCABEZADO;
+        long finValido = desde;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(rutaDiario), 1 << 16))) {
+            in.skipNBytes(desde);
+            byte[] contenido;
+            while ((contenido = leerRegistro(in)) != null) {
+                eventosRecuperados.add(decodificar(contenido));
+                eventosDesdeCompactacion++;
+                finValido += 8 + contenido.length;
+            }
+        }
+        canal.truncate(Math.max(finValido, TAMAÑO_ENCABEZADO));
+        canal.position(canal.size());
+    }
+
+    // Formato: largo del contenido, CRC32 del contenido y el contenido
+    private static byte[] codificar(Evento evento) {
+        try {
+            ByteArrayOutputStream contenido = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(contenido);
+            out.writeByte(evento.tipo.ordinal());
+            out.writeInt(evento.libroId);
+            out.writeUTF(evento.usuarioId);
+            out.writeInt(evento.fechaPrestamo == null ? SIN_FECHA : (int) evento.fechaPrestamo.toEpochDay());
+            out.writeInt(evento.fechaDevolucion == null ? SIN_FECHA : (int) evento.fechaDevolucion.toEpochDay());
+            byte[] bytes = contenido.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteBuffer registro = ByteBuffer.allocate(8 + bytes.length);
+            registro.putInt(bytes.length);
+            registro.putInt((int) crc.getValue());
+            registro.put(bytes);
+            return registro.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Contenido del siguiente registro; null al llegar al final o a un registro incompleto o dañado
+    private static byte[] leerRegistro(DataInputStream in) throws IOException {
+        try {
+            int largo = in.readInt();
+            int crcEsperado = in.readInt();
+            if (largo <= 0 || largo > 1 << 20) return null;
+            byte[] bytes = in.readNBytes(largo);
+            if (bytes.length < largo) return null;
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return (int) crc.getValue() == crcEsperado ? bytes : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static Evento decodificar(byte[] bytes) throws IOException {
+        DataInputStream contenido = new DataInputStream(new ByteArrayInputStream(bytes));
+        TipoEvento tipo = TipoEvento.values()[contenido.readByte()];
+        int libroId = contenido.readInt();
+        String usuarioId = contenido.readUTF();
+        int fechaPrestamo = contenido.readInt();
+        int fechaDevolucion = contenido.readInt();
+        return new Evento(tipo, libroId, usuarioId,
+                fechaPrestamo == SIN_FECHA ? null : LocalDate.ofEpochDay(fechaPrestamo),
+                fechaDevolucion == SIN_FECHA ? null : LocalDate.ofEpochDay(fechaDevolucion));
+    }
+
+    private static void escribirEncabezado(Path ruta, long generacion) throws IOException {
+        try (FileChannel nuevo = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer encabezado = ByteBuffer.allocate(TAMAÑO_ENCABEZADO);
+            encabezado.putInt(MAGICO_DIARIO);
+            encabezado.putLong(generacion);
+            encabezado.flip();
+            while (encabezado.hasRemaining()) {
+                nuevo.write(encabezado);
+            }
+            nuevo.force(true);
+        }
+    }
+
+    private static void forzar(Path ruta) throws IOException {
+        try (FileChannel archivo = FileChannel.open(ruta, StandardOpenOption.WRITE)) {
+            archivo.force(true);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package biblioteca.servicios;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Cadena <-> código entero. Cada valor distinto (autor, género, editorial) se guarda una sola vez.
+// Los valores se guardan en bloques que nunca se copian: leer un código no necesita bloqueo.
+final class DiccionarioCadenas {
+    private static final int BITS_BLOQUE = 10;
+    private static final int TAMAÑO_BLOQUE = 1 << BITS_BLOQUE;
+
+    private final Map<String, Integer> codigos = new ConcurrentHashMap<>();
+    private volatile String[][] bloques = new String[4][];
+    private int cantidad;
+
+    int codificar(String valor) {
+        Integer codigo = codigos.get(valor);
+        if (codigo != null) return codigo;
+        synchronized (this) {
+            codigo = codigos.get(valor);
+            if (codigo != null) return codigo;
+            int nuevo = cantidad;
+            int bloque = nuevo >>> BITS_BLOQUE;
+            String[][] actuales = bloques;
+            if (bloque == actuales.length) {
+                actuales = Arrays.copyOf(actuales, actuales.length * 2);
+            }
+            if (actuales[bloque] == null) {
+                actuales[bloque] = new String[TAMAÑO_BLOQUE];
+            }
+            actuales[bloque][nuevo & (TAMAÑO_BLOQUE - 1)] = valor;
+            bloques = actuales;
+            cantidad = nuevo + 1;
+            codigos.put(valor, nuevo);
+            return nuevo;
+        }
+    }
+
+    // El código debe venir de codificar() (directamente o a través de una fila ya publicada)
+    String valor(int codigo) {
+        return bloques[codigo >>> BITS_BLOQUE][codigo & (TAMAÑO_BLOQUE - 1)];
+    }
+
+    int tamaño() {
+        return codigos.size();
+    }
+}
@@ -0,0 +1,217 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+import biblioteca.entidades.Prestamo;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+// Contadores de circulación que se actualizan con cada préstamo, devolución y compra, para que
+// un panel pueda consultarlos continuamente sin recorrer el historial ni el catálogo:
+//   - libros más prestados (los CAPACIDAD_TOP primeros, exactos)
+//   - préstamos totales y activos por género y por usuario
+//   - ejemplares disponibles por género
+// Los préstamos por libro solo crecen, así que basta con comparar cada nuevo total con el menor
+// del top: un libro que no está en él nunca supera a ese mínimo sin pasar por actualizarTop.
+public class EstadisticasCirculacion {
+    public static final int CAPACIDAD_TOP = 20;
+
+    public static class ConteoLibro implements Comparable<ConteoLibro> {
+        private final int libroId;
+        private final String titulo;
+        private final long prestamos;
+
+        ConteoLibro(int libroId, String titulo, long prestamos) {
+            this.libroId = libroId;
+            this.titulo = titulo;
+            this.prestamos = prestamos;
+        }
+
+        public int getLibroId() { return libroId; }
+        public String getTitulo() { return titulo; }
+        public long getPrestamos() { return prestamos; }
+
+        // De menos a más prestado; a igual cantidad, el de ID mayor va antes
+        @Override
+        public int compareTo(ConteoLibro otro) {
+            int comparacion = Long.compare(prestamos, otro.prestamos);
+            return comparacion != 0 ? comparacion : Integer.compare(otro.libroId, libroId);
+        }
+    }
+
+    private final Map<Integer, LongAdder> prestamosPorLibro = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> prestamosPorGenero = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> activosPorGenero = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> disponiblesPorGenero = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> prestamosPorUsuario = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> activosPorUsuario = new ConcurrentHashMap<>();
+    private final LongAdder totalPrestamos = new LongAdder();
+    private final LongAdder totalDevoluciones = new LongAdder();
+
+    // Top protegido por su propio bloqueo; la lista publicada se lee sin bloqueo
+    private final TreeSet<ConteoLibro> top = new TreeSet<>();
+    private final Map<Integer, ConteoLibro> enTop = new HashMap<>();
+    private volatile long minimoTop;
+    private volatile List<ConteoLibro> topPublicado = List.of();
+
+    public void registrarPrestamo(Prestamo prestamo) {
+        Libro libro = prestamo.getLibro();
+        contarPrestamo(libro, prestamo.getUsuarioId());
+        incrementar(activosPorGenero, genero(libro), 1);
+        incrementar(activosPorUsuario, prestamo.getUsuarioId(), 1);
+        incrementar(disponiblesPorGenero, genero(libro), -1);
+    }
+
+    public void registrarDevolucion(Prestamo prestamo) {
+        totalDevoluciones.increment();
+        incrementar(activosPorGenero, genero(prestamo.getLibro()), -1);
+        incrementar(activosPorUsuario, prestamo.getUsuarioId(), -1);
+        incrementar(disponiblesPorGenero, genero(prestamo.getLibro()), 1);
+    }
+
+    // Compra o carga del catálogo
+    public void registrarEjemplares(Libro libro) {
+        incrementar(disponiblesPorGenero, genero(libro), libro.getEjemplares());
+    }
+
+    // Inventario de una copia binaria sin materializar sus libros
+    public void registrarEjemplares(Map<String, Long> ejemplaresPorGenero) {
+        for (Map.Entry<String, Long> entrada : ejemplaresPorGenero.entrySet()) {
+            incrementar(disponiblesPorGenero, entrada.getKey(), entrada.getValue());
+        }
+    }
+
+    // Devoluciones recuperadas (del diario o de un segmento del historial): solo suman a los totales
+    public void cargarDevoluciones(Collection<Prestamo> devoluciones) {
+        for (Prestamo prestamo : devoluciones) {
+            contarPrestamo(prestamo.getLibro(), prestamo.getUsuarioId());
+            totalDevoluciones.increment();
+        }
+    }
+
+    // Totales guardados de los segmentos del historial: suman como cargarDevoluciones sin leerlos.
+    // libros da el título para el top; los libros que ya no están se cuentan igual.
+    public void cargarTotales(TotalesHistorial totales, IntFunction<Libro> libros) {
+        totalPrestamos.add(totales.getDevoluciones());
+        totalDevoluciones.add(totales.getDevoluciones());
+        for (Map.Entry<String, Long> entrada : totales.getPrestamosPorGenero().entrySet()) {
+            incrementar(prestamosPorGenero, entrada.getKey(), entrada.getValue());
+        }
+        for (Map.Entry<String, Long> entrada : totales.getPrestamosPorUsuario().entrySet()) {
+            incrementar(prestamosPorUsuario, entrada.getKey(), entrada.getValue());
+        }
+        for (Map.Entry<Integer, Long> entrada : totales.getPrestamosPorLibro().entrySet()) {
+            LongAdder porLibro = prestamosPorLibro.computeIfAbsent(entrada.getKey(), id -> new LongAdder());
+            porLibro.add(entrada.getValue());
+            Libro libro = libros.apply(entrada.getKey());
+            if (libro != null) actualizarTop(libro, porLibro.sum());
+        }
+    }
+
+    // Préstamos en curso recuperados del diario
+    public void cargarActivos(Collection<Prestamo> activos) {
+        for (Prestamo prestamo : activos) {
+            registrarPrestamo(prestamo);
+        }
+    }
+
+    public void limpiarCirculacion() {
+        prestamosPorLibro.clear();
+        prestamosPorGenero.clear();
+        prestamosPorUsuario.clear();
+        totalPrestamos.reset();
+        totalDevoluciones.reset();
+        synchronized (top) {
+            top.clear();
+            enTop.clear();
+            minimoTop = 0;
+            topPublicado = List.of();
+        }
+        // Los activos se descuentan del inventario: se vuelven a sumar al quitarlos
+        for (Map.Entry<String, LongAdder> entrada : activosPorGenero.entrySet()) {
+            incrementar(disponiblesPorGenero, entrada.getKey(), entrada.getValue().sum());
+        }
+        activosPorGenero.clear();
+        activosPorUsuario.clear();
+    }
+
+    public void limpiarInventario() {
+        disponiblesPorGenero.clear();
+    }
+
+    // Los k libros más prestados, del que más al que menos (k <= CAPACIDAD_TOP)
+    public List<ConteoLibro> masPrestados(int k) {
+        List<ConteoLibro> actual = topPublicado;
+        return actual.size() <= k ? actual : actual.subList(0, k);
+    }
+
+    public long prestamosDeLibro(int libroId) { return valor(prestamosPorLibro.get(libroId)); }
+    public long prestamosPorGenero(String genero) { return valor(prestamosPorGenero.get(genero)); }
+    public long activosPorGenero(String genero) { return valor(activosPorGenero.get(genero)); }
+    public long disponiblesPorGenero(String genero) { return valor(disponiblesPorGenero.get(genero)); }
+    public long prestamosDeUsuario(String usuarioId) { return valor(prestamosPorUsuario.get(usuarioId)); }
+    public long activosDeUsuario(String usuarioId) { return valor(activosPorUsuario.get(usuarioId)); }
+    public long getTotalPrestamos() { return totalPrestamos.sum(); }
+    public long getTotalDevoluciones() { return totalDevoluciones.sum(); }
+
+    // Copias ordenadas por género, para listar
+    public Map<String, Long> getPrestamosPorGenero() { return copiar(prestamosPorGenero); }
+    public Map<String, Long> getActivosPorGenero() { return copiar(activosPorGenero); }
+    public Map<String, Long> getDisponiblesPorGenero() { return copiar(disponiblesPorGenero); }
+
+    private void contarPrestamo(Libro libro, String usuarioId) {
+        totalPrestamos.increment();
+        incrementar(prestamosPorGenero, genero(libro), 1);
+        incrementar(prestamosPorUsuario, usuarioId, 1);
+        LongAdder porLibro = prestamosPorLibro.computeIfAbsent(libro.getId(), id -> new LongAdder());
+        porLibro.increment();
+        actualizarTop(libro, porLibro.sum());
+    }
+
+    private void actualizarTop(Libro libro, long prestamos) {
+        // Un libro del top siempre tiene al menos minimoTop préstamos: no se salta ninguno
+        if (prestamos < minimoTop) return;
+        synchronized (top) {
+            ConteoLibro anterior = enTop.get(libro.getId());
+            if (anterior != null) {
+                // Dos préstamos simultáneos pueden llegar en otro orden
+                if (anterior.prestamos >= prestamos) return;
+                top.remove(anterior);
+            } else if (top.size() >= CAPACIDAD_TOP && prestamos <= top.first().prestamos) {
+                return;
+            }
+            ConteoLibro nuevo = new ConteoLibro(libro.getId(), libro.getTitulo(), prestamos);
+            top.add(nuevo);
+            enTop.put(libro.getId(), nuevo);
+            if (top.size() > CAPACIDAD_TOP) {
+                enTop.remove(top.pollFirst().libroId);
+            }
+            minimoTop = top.size() >= CAPACIDAD_TOP ? top.first().prestamos : 0;
+            List<ConteoLibro> publicado = new ArrayList<>(top.descendingSet());
+            topPublicado = Collections.unmodifiableList(publicado);
+        }
+    }
+
+    private static String genero(Libro libro) {
+        return libro.getGenero() == null ? "" : libro.getGenero();
+    }
+
+    private static void incrementar(Map<String, LongAdder> contadores, String clave, long cantidad) {
+        if (clave == null) return;
+        contadores.computeIfAbsent(clave, c -> new LongAdder()).add(cantidad);
+    }
+
+    private static long valor(LongAdder contador) {
+        return contador == null ? 0 : contador.sum();
+    }
+
+    private static Map<String, Long> copiar(Map<String, LongAdder> contadores) {
+        Map<String, Long> copia = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entrada : contadores.entrySet()) {
+            copia.put(entrada.getKey(), entrada.getValue().sum());
+        }
+        return copia;
+    }
+}
@@ -0,0 +1,186 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Prestamo;
+import biblioteca.metricas.EventoArchivo;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+// Genera el reporte CSV de préstamos por fragmentos: cada fragmento de filas se formatea en
+// paralelo en un buffer reutilizado por hilo y los fragmentos se escriben en orden por un
+// canal con buffer grande. El historial se lee segmento a segmento, sin cargarlo entero.
+// En modo incremental el reporte del día es un registro de solo añadido con los préstamos ya
+// devueltos: cada ejecución agrega las devoluciones nuevas. Los préstamos activos, que todavía
+// pueden cambiar, van aparte (Reporte_Prestamos_Activos_<fecha>.csv), que se reescribe entero.
+// Lo ya escrito se anota en <reporte>.estado, así el modo incremental sigue después de reiniciar.
+public class GeneradorReportes {
+    private static final String ENCABEZADO = "ID Libro;Titulo;Autor;Usuario;Fecha Prestamo;Fecha Devolucion;Dias Retraso;Multa;Estado";
+    private static final int FILAS_POR_FRAGMENTO = 4096;
+    private static final int TAMAÑO_BUFFER_SALIDA = 1 << 20;
+
+    // Mismo separador decimal que usaba printf("%.2f") con la configuración regional por defecto
+    private final char separadorDecimal = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(FILAS_POR_FRAGMENTO * 128));
+
+    private static final String PREFIJO_REPORTE = "Reporte_General_Prestamos_";
+    private static final String PREFIJO_ACTIVOS = "Reporte_Prestamos_Activos_";
+
+    public static Path rutaReporte(Path carpetaSalida, LocalDate fecha, boolean comprimido) {
+        String nombre = String.format("%s%s.csv", PREFIJO_REPORTE, fecha.format(DateTimeFormatter.ISO_LOCAL_DATE));
+        return carpetaSalida.resolve(comprimido ? nombre + ".gz" : nombre);
+    }
+
+    // Préstamos activos del reporte incremental, junto al reporte del día
+    public static Path rutaActivos(Path rutaReporte) {
+        return rutaReporte.resolveSibling(rutaReporte.getFileName().toString().replace(PREFIJO_REPORTE, PREFIJO_ACTIVOS));
+    }
+
+    // Devuelve la cantidad de filas escritas
+    public synchronized long generar(Path rutaReporte, HistorialSegmentado historial, Collection<Prestamo> activos, boolean incremental) throws IOException {
+        Files.createDirectories(rutaReporte.getParent());
+        Path rutaEstado = rutaEstado(rutaReporte);
+        if (!incremental) {
+            // El reporte completo lleva activos: ya no se le pueden añadir devoluciones
+            Files.deleteIfExists(rutaEstado);
+            return escribir(rutaReporte, false, salida -> {
+                long[] filas = {0};
+                historial.recorrer(0, bloque -> filas[0] += escribirEnParalelo(salida, bloque));
+                return filas[0] + escribirEnParalelo(salida, new ArrayList<>(activos));
+            });
+        }
+
+        // Se continúa solo si el reporte es el que dejó la ejecución anterior
+        long escritas = leerEstado(rutaEstado, rutaReporte);
+        boolean continuar = escritas >= 0 && escritas <= historial.tamaño();
+        long desde = continuar ? escritas : 0;
+        long[] hasta = {desde};
+        long filas = escribir(rutaReporte, continuar, salida -> {
+            long[] devueltas = {0};
+            hasta[0] = historial.recorrer(desde, bloque -> devueltas[0] += escribirEnParalelo(salida, bloque));
+            return devueltas[0];
+        });
+        guardarEstado(rutaEstado, hasta[0], Files.size(rutaReporte));
+        return filas + escribir(rutaActivos(rutaReporte), false, salida -> escribirEnParalelo(salida, new ArrayList<>(activos)));
+    }
+
+    private interface Contenido {
+        long escribir(OutputStream salida) throws IOException;
+    }
+
+    // Con el encabezado si el archivo empieza de cero; devuelve las filas escritas
+    private long escribir(Path ruta, boolean añadir, Contenido contenido) throws IOException {
+        boolean comprimido = ruta.getFileName().toString().endsWith(".gz");
+        StandardOpenOption modo = añadir ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        long tamañoPrevio = añadir ? Files.size(ruta) : 0;
+        EventoArchivo evento = EventoArchivo.iniciar("REPORTE", ruta);
+        long filas;
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.WRITE, modo);
+             OutputStream salida = abrirSalida(canal, comprimido)) {
+            if (!añadir) {
+                salida.write((ENCABEZADO + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            }
+            filas = contenido.escribir(salida);
+        }
+        evento.terminar(Files.size(ruta) - tamañoPrevio, filas, true);
+        return filas;
+    }
+
+    private static Path rutaEstado(Path rutaReporte) {
+        return rutaReporte.resolveSibling(rutaReporte.getFileName() + ".estado");
+    }
+
+    // Devoluciones ya escritas; -1 si no hay estado o el reporte cambió desde entonces
+    private static long leerEstado(Path rutaEstado, Path rutaReporte) throws IOException {
+        if (!Files.exists(rutaEstado) || !Files.exists(rutaReporte)) return -1;
+        String[] campos = Files.readString(rutaEstado, StandardCharsets.UTF_8).trim().split(";");
+        try {
+            if (campos.length != 2 || Long.parseLong(campos[1]) != Files.size(rutaReporte)) return -1;
+            return Long.parseLong(campos[0]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void guardarEstado(Path rutaEstado, long devoluciones, long tamañoReporte) throws IOException {
+        Path temporal = rutaEstado.resolveSibling(rutaEstado.getFileName() + ".tmp");
+        Files.writeString(temporal, devoluciones + ";" + tamañoReporte, StandardCharsets.UTF_8);
+        Files.move(temporal, rutaEstado, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Los fragmentos se formatean de a grupos para acotar la memoria usada en vuelo
+    private long escribirEnParalelo(OutputStream salida, List<Prestamo> prestamos) throws IOException {
+        int fragmentos = (prestamos.size() + FILAS_POR_FRAGMENTO - 1) / FILAS_POR_FRAGMENTO;
+        int porGrupo = Math.max(1, Runtime.getRuntime().availableProcessors() * 2);
+        for (int inicioGrupo = 0; inicioGrupo < fragmentos; inicioGrupo += porGrupo) {
+            int finGrupo = Math.min(fragmentos, inicioGrupo + porGrupo);
+            byte[][] bloques = new byte[finGrupo - inicioGrupo][];
+            int base = inicioGrupo;
+            IntStream.range(inicioGrupo, finGrupo).parallel().forEach(f -> {
+                int desde = f * FILAS_POR_FRAGMENTO;
+                int hasta = Math.min(prestamos.size(), desde + FILAS_POR_FRAGMENTO);
+                bloques[f - base] = formatear(prestamos.subList(desde, hasta));
+            });
+            for (byte[] bloque : bloques) {
+                salida.write(bloque);
+            }
+        }
+        return prestamos.size();
+    }
+
+    private byte[] formatear(List<Prestamo> prestamos) {
+        StringBuilder sb = buffers.get();
+        sb.setLength(0);
+        String finLinea = System.lineSeparator();
+        for (Prestamo prestamo : prestamos) {
+            sb.append(prestamo.getLibro().getId()).append(';')
+                    .append(prestamo.getLibro().getTitulo()).append(';')
+                    .append(prestamo.getLibro().getAutor()).append(';')
+                    .append(prestamo.getUsuarioId()).append(';')
+                    .append(prestamo.getFechaPrestamo()).append(';');
+            if (prestamo.getFechaDevolucion() != null) {
+                sb.append(prestamo.getFechaDevolucion()).append(';')
+                        .append(prestamo.getDiasRetraso()).append(';');
+                agregarMonto(sb, prestamo.getMultaCentavos());
+                sb.append(";Devuelto");
+            } else {
+                sb.append("Pendiente;N/A;");
+                agregarMonto(sb, 0);
+                sb.append(";Activo");
+            }
+            sb.append(finLinea);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Centavos con dos decimales, sin pasar por BigDecimal
+    private void agregarMonto(StringBuilder sb, long centavos) {
+        if (centavos < 0) {
+            sb.append('-');
+            centavos = -centavos;
+        }
+        long resto = centavos % 100;
+        sb.append(centavos / 100).append(separadorDecimal);
+        if (resto < 10) sb.append('0');
+        sb.append(resto);
+    }
+
+    // Con gzip, cada ejecución incremental añade un miembro nuevo al archivo (gunzip los concatena)
+    private static OutputStream abrirSalida(FileChannel canal, boolean comprimido) throws IOException {
+        OutputStream salida = new BufferedOutputStream(Channels.newOutputStream(canal), TAMAÑO_BUFFER_SALIDA);
+        return comprimido ? new GZIPOutputStream(salida, 1 << 16) : salida;
+    }
+}
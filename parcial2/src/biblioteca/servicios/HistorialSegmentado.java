@@ -0,0 +1,381 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+import biblioteca.entidades.Prestamo;
+import biblioteca.metricas.EventoArchivo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+// Historial de devoluciones con memoria acotada: en memoria solo quedan las devoluciones
+// recientes y las anteriores se pasan (al compactar el diario) a segmentos inmutables en
+// Biblioteca/Historial. Cada segmento guarda en su encabezado el rango de fechas de devolución
+// y la tabla de usuarios, de modo que las consultas por fecha o por usuario solo leen los
+// segmentos que pueden contener resultados. Los registros son de ancho fijo (ID del libro,
+// usuario como índice en la tabla y las dos fechas en días epoch); el Libro se obtiene del catálogo.
+// Junto a cada segmento se guardan las multas y contadores acumulados hasta él (TotalesHistorial),
+// de modo que al arrancar no se releen los segmentos.
+public class HistorialSegmentado {
+    // Devoluciones más recientes que se quedan en memoria al derramar
+    public static final int VENTANA = 4096;
+
+    private static final int MAGICO = 0x48534547; // "HSEG"
+    private static final int VERSION = 1;
+    private static final int TAMAÑO_ENCABEZADO = 36;
+    private static final int TAMAÑO_REGISTRO = 16;
+    private static final String PREFIJO = "Historial-";
+    private static final String EXTENSION = ".seg";
+    private static final String PREFIJO_TOTALES = "Totales-";
+    private static final String EXTENSION_TOTALES = ".bin";
+
+    public interface Receptor {
+        void recibir(List<Prestamo> bloque) throws IOException;
+    }
+
+    // Solo los datos del encabezado; los registros se leen al consultarlos
+    private static final class Segmento {
+        final long numero;
+        final Path ruta;
+        final int cantidad;
+        final int diaMinimo;
+        final int diaMaximo;
+        final int usuarios;
+        final int inicioRegistros;
+
+        Segmento(long numero, Path ruta, int cantidad, int diaMinimo, int diaMaximo, int usuarios, int inicioRegistros) {
+            this.numero = numero;
+            this.ruta = ruta;
+            this.cantidad = cantidad;
+            this.diaMinimo = diaMinimo;
+            this.diaMaximo = diaMaximo;
+            this.usuarios = usuarios;
+            this.inicioRegistros = inicioRegistros;
+        }
+    }
+
+    private final Path carpeta;
+    private final IntFunction<Libro> libros;
+    private final List<Segmento> segmentos = new ArrayList<>();
+    private final List<Prestamo> recientes = new ArrayList<>();
+    private long enSegmentos;
+    private TotalesHistorial totales = new TotalesHistorial();
+    // Hay archivo de totales para el último segmento y, a lo sumo, para este otro anterior
+    private long totalesAnteriores;
+
+    // Sin carpeta todo queda en memoria (p. ej. sin diario de préstamos)
+    public HistorialSegmentado() {
+        this(null, id -> null);
+    }
+
+    private HistorialSegmentado(Path carpeta, IntFunction<Libro> libros) {
+        this.carpeta = carpeta;
+        this.libros = libros;
+    }
+
+    // Abre los segmentos hasta el número confirmado por el punto de control del diario. Los
+    // posteriores son de una compactación que no llegó a confirmarse: sus devoluciones siguen
+    // en el diario, así que se borran. libros resuelve el ID guardado en cada registro.
+    // Los totales se cargan del archivo más reciente confirmado; solo se leen los segmentos
+    // posteriores a él (p. ej. si no llegó a escribirse o es de una versión anterior).
+    public static HistorialSegmentado abrir(Path carpeta, long confirmados, IntFunction<Libro> libros) throws IOException {
+        HistorialSegmentado historial = new HistorialSegmentado(carpeta, libros);
+        Files.createDirectories(carpeta);
+        for (Path ruta : listar(carpeta, PREFIJO, EXTENSION)) {
+            long numero = numeroDe(ruta, PREFIJO, EXTENSION);
+            if (numero > confirmados) {
+                Files.delete(ruta);
+                continue;
+            }
+            Segmento segmento = leerEncabezado(ruta);
+            historial.segmentos.add(segmento);
+            historial.enSegmentos += segmento.cantidad;
+        }
+
+        // Del más reciente al más antiguo: se queda el primero válido y los demás se borran
+        long cubiertos = 0;
+        List<Path> archivosTotales = new ArrayList<>(listar(carpeta, PREFIJO_TOTALES, EXTENSION_TOTALES));
+        Collections.reverse(archivosTotales);
+        for (Path ruta : archivosTotales) {
+            long numero = numeroDe(ruta, PREFIJO_TOTALES, EXTENSION_TOTALES);
+            TotalesHistorial guardados = numero > confirmados || cubiertos > 0 ? null : TotalesHistorial.leer(ruta, numero);
+            if (guardados != null) {
+                historial.totales = guardados;
+                cubiertos = numero;
+            } else {
+                Files.delete(ruta);
+            }
+        }
+        boolean releidos = false;
+        for (Segmento segmento : historial.segmentos) {
+            if (segmento.numero <= cubiertos) continue;
+            historial.totales.agregar(historial.leerRegistros(segmento, 0, null, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            releidos = true;
+        }
+        if (releidos) {
+            historial.totales.guardar(historial.rutaTotales(historial.getUltimoSegmento()), historial.getUltimoSegmento());
+            if (cubiertos > 0) Files.deleteIfExists(historial.rutaTotales(cubiertos));
+        }
+        return historial;
+    }
+
+    public synchronized void agregar(Prestamo prestamo) {
+        recientes.add(prestamo);
+    }
+
+    // Devoluciones en segmentos y en memoria
+    public synchronized long tamaño() {
+        return enSegmentos + recientes.size();
+    }
+
+    public synchronized boolean estaVacio() {
+        return enSegmentos == 0 && recientes.isEmpty();
+    }
+
+    // Copia de lo que está en memoria, en orden de devolución: es lo que va al punto de control
+    public synchronized List<Prestamo> enMemoria() {
+        return new ArrayList<>(recientes);
+    }
+
+    public synchronized long getEnSegmentos() {
+        return enSegmentos;
+    }
+
+    // Multas y contadores de todo lo que está en segmentos; solo para la recuperación, antes de
+    // que otro hilo pueda derramar
+    public synchronized TotalesHistorial getTotalesSegmentos() {
+        return totales;
+    }
+
+    public synchronized long getUltimoSegmento() {
+        return segmentos.isEmpty() ? 0 : segmentos.get(segmentos.size() - 1).numero;
+    }
+
+    // Pasa a un segmento nuevo todo lo que exceda la VENTANA y devuelve el número del último
+    // segmento. El punto de control que se escriba a continuación debe confirmar ese número.
+    public synchronized long derramar() throws IOException {
+        if (carpeta == null || recientes.size() <= VENTANA) return getUltimoSegmento();
+        List<Prestamo> salientes = recientes.subList(0, recientes.size() - VENTANA);
+        long anterior = getUltimoSegmento();
+        Segmento segmento = escribirSegmento(anterior + 1, salientes);
+        // Los totales del segmento anterior se conservan hasta el próximo: si el punto de control
+        // no confirma este, al abrir se vuelve a ellos
+        TotalesHistorial siguientes = totales.copia();
+        siguientes.agregar(salientes);
+        siguientes.guardar(rutaTotales(segmento.numero), segmento.numero);
+        totales = siguientes;
+        if (totalesAnteriores > 0) Files.deleteIfExists(rutaTotales(totalesAnteriores));
+        totalesAnteriores = anterior;
+        segmentos.add(segmento);
+        enSegmentos += segmento.cantidad;
+        salientes.clear();
+        return segmento.numero;
+    }
+
+    // Entrega el historial por bloques (un segmento o lo que está en memoria), desde la posición
+    // indicada; devuelve la posición siguiente a la última entregada
+    public long recorrer(long desde, Receptor receptor) throws IOException {
+        List<Segmento> fijos;
+        List<Prestamo> memoria;
+        synchronized (this) {
+            fijos = new ArrayList<>(segmentos);
+            memoria = new ArrayList<>(recientes);
+        }
+        long posicion = 0;
+        for (Segmento segmento : fijos) {
+            if (desde < posicion + segmento.cantidad) {
+                int salto = (int) Math.max(0, desde - posicion);
+                receptor.recibir(leerRegistros(segmento, salto, null, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            }
+            posicion += segmento.cantidad;
+        }
+        int salto = (int) Math.min(memoria.size(), Math.max(0, desde - posicion));
+        if (salto < memoria.size()) {
+            receptor.recibir(memoria.subList(salto, memoria.size()));
+        }
+        return posicion + memoria.size();
+    }
+
+    // Devoluciones con fecha de devolución entre desde y hasta (inclusive)
+    public List<Prestamo> devolucionesEntre(LocalDate desde, LocalDate hasta) throws IOException {
+        int diaDesde = (int) desde.toEpochDay();
+        int diaHasta = (int) hasta.toEpochDay();
+        List<Prestamo> resultado = new ArrayList<>();
+        List<Prestamo> memoria = new ArrayList<>();
+        for (Segmento segmento : consultables(memoria)) {
+            if (segmento.diaMaximo < diaDesde || segmento.diaMinimo > diaHasta) continue;
+            resultado.addAll(leerRegistros(segmento, 0, null, diaDesde, diaHasta));
+        }
+        for (Prestamo prestamo : memoria) {
+            long dia = prestamo.getFechaDevolucion().toEpochDay();
+            if (dia >= diaDesde && dia <= diaHasta) resultado.add(prestamo);
+        }
+        return resultado;
+    }
+
+    public List<Prestamo> devolucionesDeUsuario(String usuarioId) throws IOException {
+        List<Prestamo> resultado = new ArrayList<>();
+        List<Prestamo> memoria = new ArrayList<>();
+        for (Segmento segmento : consultables(memoria)) {
+            resultado.addAll(leerRegistros(segmento, 0, usuarioId, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+        for (Prestamo prestamo : memoria) {
+            if (prestamo.getUsuarioId().equals(usuarioId)) resultado.add(prestamo);
+        }
+        return resultado;
+    }
+
+    // Segmentos actuales y copia de la memoria tomados juntos, para no ver una devolución dos veces
+    private synchronized List<Segmento> consultables(List<Prestamo> memoria) {
+        memoria.addAll(recientes);
+        return new ArrayList<>(segmentos);
+    }
+
+    private Segmento escribirSegmento(long numero, List<Prestamo> prestamos) throws IOException {
+        // Tabla de usuarios ordenada: cada registro guarda solo su posición
+        TreeMap<String, Integer> indices = new TreeMap<>();
+        int diaMinimo = Integer.MAX_VALUE;
+        int diaMaximo = Integer.MIN_VALUE;
+        for (Prestamo prestamo : prestamos) {
+            indices.put(prestamo.getUsuarioId(), 0);
+            int dia = (int) prestamo.getFechaDevolucion().toEpochDay();
+            diaMinimo = Math.min(diaMinimo, dia);
+            diaMaximo = Math.max(diaMaximo, dia);
+        }
+        ByteArrayOutputStream tabla = new ByteArrayOutputStream();
+        DataOutputStream outTabla = new DataOutputStream(tabla);
+        int siguiente = 0;
+        for (Map.Entry<String, Integer> entrada : indices.entrySet()) {
+            entrada.setValue(siguiente++);
+            outTabla.writeUTF(entrada.getKey());
+        }
+        int inicioRegistros = TAMAÑO_ENCABEZADO + tabla.size();
+
+        Path ruta = carpeta.resolve(String.format("%s%06d%s", PREFIJO, numero, EXTENSION));
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        EventoArchivo evento = EventoArchivo.iniciar("HISTORIAL", ruta);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+            out.writeInt(MAGICO);
+            out.writeInt(VERSION);
+            out.writeLong(numero);
+            out.writeInt(prestamos.size());
+            out.writeInt(diaMinimo);
+            out.writeInt(diaMaximo);
+            out.writeInt(indices.size());
+            out.writeInt(inicioRegistros);
+            tabla.writeTo(out);
+            for (Prestamo prestamo : prestamos) {
+                out.writeInt(prestamo.getLibro().getId());
+                out.writeInt(indices.get(prestamo.getUsuarioId()));
+                out.writeInt((int) prestamo.getFechaPrestamo().toEpochDay());
+                out.writeInt((int) prestamo.getFechaDevolucion().toEpochDay());
+            }
+        }
+        try (FileChannel archivo = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+            archivo.force(true);
+        }
+        Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evento.terminar(Files.size(ruta), prestamos.size(), true);
+        return new Segmento(numero, ruta, prestamos.size(), diaMinimo, diaMaximo, indices.size(), inicioRegistros);
+    }
+
+    private static Segmento leerEncabezado(Path ruta) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(ruta), TAMAÑO_ENCABEZADO))) {
+            if (in.readInt() != MAGICO || in.readInt() != VERSION) {
+                throw new IOException("Segmento de historial inválido: " + ruta);
+            }
+            long numero = in.readLong();
+            int cantidad = in.readInt();
+            int diaMinimo = in.readInt();
+            int diaMaximo = in.readInt();
+            int usuarios = in.readInt();
+            int inicioRegistros = in.readInt();
+            if (Files.size(ruta) != inicioRegistros + (long) cantidad * TAMAÑO_REGISTRO) {
+                throw new IOException("Segmento de historial incompleto: " + ruta);
+            }
+            return new Segmento(numero, ruta, cantidad, diaMinimo, diaMaximo, usuarios, inicioRegistros);
+        }
+    }
+
+    // Registros desde la posición salto que cumplen el filtro (usuario null = todos). Los que
+    // ya no corresponden a un libro del catálogo se omiten, como al reproducir el diario.
+    private List<Prestamo> leerRegistros(Segmento segmento, int salto, String usuarioId, int diaDesde, int diaHasta) throws IOException {
+        try (FileChannel canal = FileChannel.open(segmento.ruta, StandardOpenOption.READ)) {
+            String[] usuarios = leerUsuarios(canal, segmento);
+            int buscado = -1;
+            if (usuarioId != null) {
+                buscado = Arrays.binarySearch(usuarios, usuarioId);
+                if (buscado < 0) return Collections.emptyList();
+            }
+
+            ByteBuffer registros = ByteBuffer.allocate((segmento.cantidad - salto) * TAMAÑO_REGISTRO);
+            long posicion = segmento.inicioRegistros + (long) salto * TAMAÑO_REGISTRO;
+            while (registros.hasRemaining()) {
+                if (canal.read(registros, posicion + registros.position()) < 0) {
+                    throw new EOFException("Segmento de historial incompleto: " + segmento.ruta);
+                }
+            }
+            registros.flip();
+
+            List<Prestamo> resultado = new ArrayList<>(registros.remaining() / TAMAÑO_REGISTRO);
+            while (registros.hasRemaining()) {
+                int libroId = registros.getInt();
+                int usuario = registros.getInt();
+                int diaPrestamo = registros.getInt();
+                int diaDevolucion = registros.getInt();
+                if (buscado >= 0 && usuario != buscado) continue;
+                if (diaDevolucion < diaDesde || diaDevolucion > diaHasta) continue;
+                Libro libro = libros.apply(libroId);
+                if (libro == null) continue;
+                Prestamo prestamo = new Prestamo(libro, usuarios[usuario], LocalDate.ofEpochDay(diaPrestamo));
+                prestamo.registrarDevolucion(LocalDate.ofEpochDay(diaDevolucion));
+                resultado.add(prestamo);
+            }
+            return resultado;
+        }
+    }
+
+    private static String[] leerUsuarios(FileChannel canal, Segmento segmento) throws IOException {
+        ByteBuffer tabla = ByteBuffer.allocate(segmento.inicioRegistros - TAMAÑO_ENCABEZADO);
+        while (tabla.hasRemaining()) {
+            if (canal.read(tabla, TAMAÑO_ENCABEZADO + tabla.position()) < 0) {
+                throw new EOFException("Segmento de historial incompleto: " + segmento.ruta);
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tabla.array()));
+        String[] usuarios = new String[segmento.usuarios];
+        for (int i = 0; i < usuarios.length; i++) {
+            usuarios[i] = in.readUTF();
+        }
+        return usuarios;
+    }
+
+    private Path rutaTotales(long numero) {
+        return carpeta.resolve(String.format("%s%06d%s", PREFIJO_TOTALES, numero, EXTENSION_TOTALES));
+    }
+
+    // Archivos con ese prefijo y extensión, por número
+    private static List<Path> listar(Path carpeta, String prefijo, String extension) throws IOException {
+        try (Stream<Path> archivos = Files.list(carpeta)) {
+            return archivos.filter(ruta -> numeroDe(ruta, prefijo, extension) > 0)
+                    .sorted(Comparator.comparingLong(ruta -> numeroDe(ruta, prefijo, extension)))
+                    .toList();
+        }
+    }
+
+    // Número según el nombre del archivo; 0 si no tiene ese prefijo y extensión
+    private static long numeroDe(Path ruta, String prefijo, String extension) {
+        String nombre = ruta.getFileName().toString();
+        if (!nombre.startsWith(prefijo) || !nombre.endsWith(extension)) return 0;
+        try {
+            return Long.parseLong(nombre.substring(prefijo.length(), nombre.length() - extension.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
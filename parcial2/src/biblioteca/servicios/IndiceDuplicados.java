@@ -0,0 +1,158 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Índice de IDs y títulos ya comprados. Se construye una vez a partir de Compras.txt,
+// se actualiza al comprar y se guarda junto al archivo de datos (Compras.txt.idx). Con las compras
+// particionadas el archivo de referencia es el manifiesto (manifiesto.txt.idx).
+// Un libro está repetido si coincide el ID o el título normalizado; los títulos casi iguales
+// solo se informan (pueden ser otro tomo o edición de la misma obra).
+public class IndiceDuplicados {
+    private static final int MAGICO = 0x49445550; // "IDUP"
+    private static final int VERSION = 2;
+
+    // Similitud de trigramas a partir de la cual se avisa de un título parecido
+    public static final double UMBRAL_SIMILITUD = 0.85;
+
+    private final Path rutaCompras;
+    private final Path rutaIndice;
+    private final Set<Integer> ids = new HashSet<>();
+    private IndiceTitulos titulos = new IndiceTitulos();
+    private final List<Integer> idsDeTitulos = new ArrayList<>();
+    private final List<String> clavesDeTitulos = new ArrayList<>();
+
+    private IndiceDuplicados(Path rutaCompras) {
+        this.rutaCompras = rutaCompras;
+        this.rutaIndice = rutaCompras.resolveSibling(rutaCompras.getFileName() + ".idx");
+    }
+
+    public interface FuenteCompras {
+        Collection<? extends Libro> cargar() throws IOException;
+    }
+
+    // Carga el índice guardado si corresponde al archivo actual; si no, lo reconstruye
+    public static IndiceDuplicados abrir(Path rutaCompras) throws IOException {
+        return abrir(rutaCompras, () -> new ValidadorExistencias().cargarCompras(rutaCompras));
+    }
+
+    // Igual, pero las compras para reconstruirlo salen de la fuente indicada; rutaCompras solo
+    // identifica su estado (tamaño y fecha de modificación)
+    public static IndiceDuplicados abrir(Path rutaCompras, FuenteCompras fuente) throws IOException {
+        IndiceDuplicados indice = new IndiceDuplicados(rutaCompras);
+        if (!indice.cargarGuardado()) {
+            indice.reconstruir(fuente.cargar());
+            indice.guardar();
+        }
+        return indice;
+    }
+
+    public boolean existe(Libro libro) {
+        return ids.contains(libro.getId()) || titulos.contieneExactoNormalizado(libro.getTituloNormalizado());
+    }
+
+    public boolean contieneId(int id) {
+        return ids.contains(id);
+    }
+
+    // Título ya comprado igual o parecido al del libro; null si no hay
+    public IndiceTitulos.Coincidencia buscarTituloSimilar(Libro libro) {
+        return titulos.buscarSimilarNormalizado(libro.getTituloNormalizado(), UMBRAL_SIMILITUD);
+    }
+
+    // Escritura directa: se llama al añadir libros a Compras.txt
+    public void registrar(Libro libro) {
+        ids.add(libro.getId());
+        registrarTitulo(libro.getId(), libro.getTituloNormalizado());
+    }
+
+    private void registrarTitulo(int id, String clave) {
+        if (titulos.contieneExactoNormalizado(clave)) return;
+        titulos.agregarNormalizado(id, clave);
+        idsDeTitulos.add(id);
+        clavesDeTitulos.add(clave);
+    }
+
+    public void registrarTodos(List<? extends Libro> libros) {
+        for (Libro libro : libros) {
+            registrar(libro);
+        }
+    }
+
+    public int tamaño() {
+        return ids.size();
+    }
+
+    public Path getRutaCompras() {
+        return rutaCompras;
+    }
+
+    // Guarda el índice junto con el tamaño y la fecha de modificación de Compras.txt
+    public void guardar() throws IOException {
+        Path temporal = rutaIndice.resolveSibling(rutaIndice.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+            out.writeInt(MAGICO);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(rutaCompras));
+            out.writeLong(Files.getLastModifiedTime(rutaCompras).toMillis());
+            out.writeInt(ids.size());
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+            out.writeInt(clavesDeTitulos.size());
+            for (int i = 0; i < clavesDeTitulos.size(); i++) {
+                out.writeInt(idsDeTitulos.get(i));
+                out.writeUTF(clavesDeTitulos.get(i));
+            }
+        }
+        Files.move(temporal, rutaIndice, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean cargarGuardado() {
+        if (!Files.exists(rutaIndice) || !Files.exists(rutaCompras)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(rutaIndice), 1 << 16))) {
+            if (in.readInt() != MAGICO || in.readInt() != VERSION) return false;
+            // Si Compras.txt cambió fuera del sistema el índice ya no es fiable
+            if (in.readLong() != Files.size(rutaCompras)
+                    || in.readLong() != Files.getLastModifiedTime(rutaCompras).toMillis()) {
+                return false;
+            }
+            int totalIds = in.readInt();
+            for (int i = 0; i < totalIds; i++) {
+                ids.add(in.readInt());
+            }
+            int totalTitulos = in.readInt();
+            for (int i = 0; i < totalTitulos; i++) {
+                int id = in.readInt();
+                registrarTitulo(id, in.readUTF());
+            }
+            return true;
+        } catch (IOException e) {
+            limpiar();
+            return false;
+        }
+    }
+
+    private void reconstruir(Collection<? extends Libro> compras) {
+        limpiar();
+        for (Libro libro : compras) {
+            registrar(libro);
+        }
+    }
+
+    private void limpiar() {
+        ids.clear();
+        titulos = new IndiceTitulos();
+        idsDeTitulos.clear();
+        clavesDeTitulos.clear();
+    }
+}
@@ -0,0 +1,243 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+// Índice de títulos normalizados (Libro.normalizarTitulo) con búsqueda exacta y por similitud.
+// La similitud es el índice de Jaccard entre los trigramas de ambos títulos. Para no recorrer
+// listas enormes solo se generan candidatos desde los trigramas menos frecuentes de la consulta
+// (filtro de prefijo): un título que alcance el umbral comparte al menos uno de ellos.
+// Dos títulos que solo difieren en un número ("tomo I" y "tomo II", "volumen 1" y "volumen 2")
+// tienen una similitud muy alta pero son obras distintas: para ser parecidos sus números
+// (arábigos o romanos) tienen que coincidir.
+public class IndiceTitulos {
+    // Numeral romano bien formado (no vacío) hasta 3999
+    private static final Pattern ROMANO =
+            Pattern.compile("(?=[ivxlcdm])m{0,3}(cm|cd|d?c{0,3})(xc|xl|l?x{0,3})(ix|iv|v?i{0,3})");
+
+    public static class Coincidencia {
+        private final int libroId;
+        private final String tituloNormalizado;
+        private final double similitud;
+        private final boolean exacta;
+
+        Coincidencia(int libroId, String tituloNormalizado, double similitud, boolean exacta) {
+            this.libroId = libroId;
+            this.tituloNormalizado = tituloNormalizado;
+            this.similitud = similitud;
+            this.exacta = exacta;
+        }
+
+        public int getLibroId() { return libroId; }
+        public String getTituloNormalizado() { return tituloNormalizado; }
+        public double getSimilitud() { return similitud; }
+        // Mismo título normalizado; si no, solo es parecido
+        public boolean esExacta() { return exacta; }
+    }
+
+    private static final class Lista {
+        int[] valores = new int[4];
+        int tamaño;
+
+        void agregar(int valor) {
+            if (tamaño == valores.length) valores = Arrays.copyOf(valores, tamaño * 2);
+            valores[tamaño++] = valor;
+        }
+    }
+
+    private final ReadWriteLock bloqueo = new ReentrantReadWriteLock();
+    private final Map<String, Integer> exactos = new HashMap<>();
+    private final Map<Long, Lista> trigramas = new HashMap<>();
+    // Por posición: ID del libro, título normalizado y cantidad de trigramas distintos
+    private final Lista ids = new Lista();
+    private final List<String> titulos = new ArrayList<>();
+    private final Lista cantidades = new Lista();
+
+    public void agregar(int libroId, String titulo) {
+        agregarNormalizado(libroId, Libro.normalizarTitulo(titulo));
+    }
+
+    public void agregar(Libro libro) {
+        agregarNormalizado(libro.getId(), libro.getTituloNormalizado());
+    }
+
+    public void agregarNormalizado(int libroId, String clave) {
+        bloqueo.writeLock().lock();
+        try {
+            if (exactos.putIfAbsent(clave, libroId) != null) return;
+            int posicion = titulos.size();
+            long[] propios = trigramasDe(clave);
+            ids.agregar(libroId);
+            titulos.add(clave);
+            cantidades.agregar(propios.length);
+            for (long trigrama : propios) {
+                trigramas.computeIfAbsent(trigrama, t -> new Lista()).agregar(posicion);
+            }
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+
+    public boolean contieneExacto(String titulo) {
+        return contieneExactoNormalizado(Libro.normalizarTitulo(titulo));
+    }
+
+    public boolean contieneExactoNormalizado(String clave) {
+        bloqueo.readLock().lock();
+        try {
+            return exactos.containsKey(clave);
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+    }
+
+    // Coincidencia exacta o el título más parecido con similitud >= umbral y los mismos números; null si no hay
+    public Coincidencia buscarSimilar(String titulo, double umbral) {
+        return buscarSimilarNormalizado(Libro.normalizarTitulo(titulo), umbral);
+    }
+
+    public Coincidencia buscarSimilarNormalizado(String clave, double umbral) {
+        bloqueo.readLock().lock();
+        try {
+            Integer exacto = exactos.get(clave);
+            if (exacto != null) return new Coincidencia(exacto, clave, 1.0, true);
+
+            long[] consulta = trigramasDe(clave);
+            if (consulta.length == 0) return null;
+            int minimoComun = (int) Math.ceil(umbral * consulta.length);
+
+            // Trigramas de la consulta ordenados de menos a más frecuentes
+            Lista[] listas = new Lista[consulta.length];
+            for (int i = 0; i < consulta.length; i++) {
+                listas[i] = trigramas.get(consulta[i]);
+            }
+            Arrays.sort(listas, Comparator.comparingInt(l -> l == null ? 0 : l.tamaño));
+
+            // Candidatos de las listas del prefijo que pasan el filtro por tamaño:
+            // Jaccard >= u exige u*|C| <= |Q| <= |C|/u
+            int prefijo = Math.min(listas.length, consulta.length - minimoComun + 1);
+            Lista candidatos = new Lista();
+            for (int i = 0; i < prefijo; i++) {
+                Lista lista = listas[i];
+                if (lista == null) continue;
+                for (int j = 0; j < lista.tamaño; j++) {
+                    int posicion = lista.valores[j];
+                    int cantidad = cantidades.valores[posicion];
+                    if (cantidad * umbral <= consulta.length && consulta.length * umbral <= cantidad) {
+                        candidatos.agregar(posicion);
+                    }
+                }
+            }
+            Arrays.sort(candidatos.valores, 0, candidatos.tamaño);
+
+            Coincidencia mejor = null;
+            List<String> numeros = null;
+            boolean[] marcados = new boolean[consulta.length];
+            for (int j = 0; j < candidatos.tamaño; j++) {
+                int posicion = candidatos.valores[j];
+                if (j > 0 && candidatos.valores[j - 1] == posicion) continue;
+                int cantidad = cantidades.valores[posicion];
+                // Jaccard >= u equivale a tener al menos u*(|Q|+|C|)/(1+u) trigramas en común
+                int requeridos = (int) Math.ceil(umbral * (consulta.length + cantidad) / (1 + umbral) - 1e-9);
+                int comunes = contarComunes(consulta, titulos.get(posicion), requeridos, marcados);
+                if (comunes < requeridos) continue;
+                double similitud = (double) comunes / (consulta.length + cantidad - comunes);
+                if (similitud < umbral || (mejor != null && similitud <= mejor.similitud)) continue;
+                if (numeros == null) numeros = numerosDe(clave);
+                if (!numeros.equals(numerosDe(titulos.get(posicion)))) continue;
+                mejor = new Coincidencia(ids.valores[posicion], titulos.get(posicion), similitud, false);
+            }
+            return mejor;
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+    }
+
+    public int tamaño() {
+        bloqueo.readLock().lock();
+        try {
+            return titulos.size();
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+    }
+
+    // Números del título en orden, los romanos pasados a arábigos: "tomo ii" y "tomo 2" -> [2]
+    static List<String> numerosDe(String clave) {
+        List<String> numeros = new ArrayList<>();
+        for (String palabra : clave.split(" ")) {
+            if (palabra.isEmpty()) continue;
+            if (palabra.chars().allMatch(Character::isDigit)) {
+                numeros.add(palabra.replaceFirst("^0+(?=.)", ""));
+            } else if (ROMANO.matcher(palabra).matches()) {
+                numeros.add(Integer.toString(valorRomano(palabra)));
+            }
+        }
+        return numeros;
+    }
+
+    private static int valorRomano(String romano) {
+        int total = 0;
+        int anterior = 0;
+        for (int i = romano.length() - 1; i >= 0; i--) {
+            int valor = switch (romano.charAt(i)) {
+                case 'i' -> 1;
+                case 'v' -> 5;
+                case 'x' -> 10;
+                case 'l' -> 50;
+                case 'c' -> 100;
+                case 'd' -> 500;
+                default -> 1000;
+            };
+            total += valor < anterior ? -valor : valor;
+            anterior = Math.max(anterior, valor);
+        }
+        return total;
+    }
+
+    // Trigramas distintos y ordenados del título con un espacio de relleno a cada lado
+    static long[] trigramasDe(String clave) {
+        if (clave.isEmpty()) return new long[0];
+        String texto = " " + clave + " ";
+        long[] resultado = new long[Math.max(1, texto.length() - 2)];
+        int cantidad = 0;
+        for (int i = 0; i + 3 <= texto.length(); i++) {
+            resultado[cantidad++] = ((long) texto.charAt(i) << 32) | ((long) texto.charAt(i + 1) << 16) | texto.charAt(i + 2);
+        }
+        Arrays.sort(resultado, 0, cantidad);
+        int distintos = 0;
+        for (int i = 0; i < cantidad; i++) {
+            if (distintos == 0 || resultado[distintos - 1] != resultado[i]) {
+                resultado[distintos++] = resultado[i];
+            }
+        }
+        return Arrays.copyOf(resultado, distintos);
+    }
+
+    // Trigramas de la consulta presentes en el título, sin construir su arreglo de trigramas.
+    // Corta en cuanto ya no puede alcanzar los requeridos (devuelve entonces un valor menor).
+    private static int contarComunes(long[] consulta, String clave, int requeridos, boolean[] marcados) {
+        Arrays.fill(marcados, false);
+        int comunes = 0;
+        int largo = clave.length() + 2;
+        for (int i = 0; i + 3 <= largo; i++) {
+            if (comunes + (largo - 2 - i) < requeridos) return comunes;
+            long trigrama = ((long) caracterConRelleno(clave, i) << 32)
+                    | ((long) caracterConRelleno(clave, i + 1) << 16) | caracterConRelleno(clave, i + 2);
+            int indice = Arrays.binarySearch(consulta, trigrama);
+            if (indice >= 0 && !marcados[indice]) {
+                marcados[indice] = true;
+                comunes++;
+            }
+        }
+        return comunes;
+    }
+
+    private static char caracterConRelleno(String clave, int i) {
+        return i == 0 || i == clave.length() + 1 ? ' ' : clave.charAt(i - 1);
+    }
+}
@@ -0,0 +1,441 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+import biblioteca.metricas.EventoArchivo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Lector de archivos con formato ID;Título;Autor;Género;Fecha;Editorial;Precio[;Ejemplares].
+// Lee el archivo por fragmentos con lecturas posicionales del canal, separa los campos sin
+// expresiones regulares ni arreglos intermedios y, si el archivo es grande, procesa los
+// fragmentos en paralelo. No se mapea: en Windows un archivo mapeado no se puede truncar ni
+// reemplazar hasta que el GC libera el mapeo, y CompraAtomica hace ambas cosas.
+public class LectorArchivoLibros {
+
+    public interface FabricaLibro<T extends Libro> {
+        T crear(int id, String titulo, String autor, String genero, LocalDate fechaPublicacion, String editorial, BigDecimal precio, int ejemplares);
+    }
+
+    // Recibe los libros por lotes; la lista se reutiliza, así que no debe guardarse
+    public interface ConsumidorLote<T extends Libro> {
+        void aceptar(List<T> lote) throws IOException;
+    }
+
+    public static class Resultado<T extends Libro> {
+        private final List<T> libros;
+        private final ResumenErrores resumen;
+
+        Resultado(List<T> libros, ResumenErrores resumen) {
+            this.libros = libros;
+            this.resumen = resumen;
+        }
+
+        public List<T> getLibros() { return libros; }
+        public ResumenErrores getResumen() { return resumen; }
+    }
+
+    private static final byte DELIMITADOR = ';';
+    private static final byte SALTO_LINEA = '\n';
+    private static final int CAMPOS = 7;
+    // Posición de la columna opcional de ejemplares (1 si no está)
+    private static final int CAMPO_EJEMPLARES = CAMPOS;
+
+    // Por debajo de este tamaño no compensa repartir el trabajo entre núcleos
+    private static final long UMBRAL_PARALELO = 4L * 1024 * 1024;
+    private static final long TAMAÑO_MAXIMO_FRAGMENTO = 64L * 1024 * 1024;
+
+    // Autor, género y editorial se repiten mucho: se reutiliza la cadena de la última línea
+    // con los mismos bytes en lugar de crear una nueva por línea
+    private static final int RANURAS_REPETIDAS = 1024;
+    private static final int LARGO_MAXIMO_REPETIDA = 64;
+
+    public <T extends Libro> Resultado<T> leer(Path rutaArchivo, FabricaLibro<T> fabrica) throws IOException {
+        EventoArchivo evento = EventoArchivo.iniciar("LECTURA", rutaArchivo);
+        try (FileChannel canal = FileChannel.open(rutaArchivo, StandardOpenOption.READ)) {
+            long tamaño = canal.size();
+            // Omitir encabezado (primera línea); la línea 2 es el primer libro
+            Resultado<T> resultado = procesarRango(canal, buscarSiguienteLinea(canal, 0, tamaño), tamaño, 2, fabrica);
+            evento.terminar(tamaño, resultado.libros.size(), false);
+            return resultado;
+        }
+    }
+
+    // Solo los bytes a partir de 'desde' (lo añadido al archivo desde la última lectura) y hasta
+    // 'hasta'. 'desde' debe ser un comienzo de línea; los números de línea del resumen son relativos.
+    public <T extends Libro> Resultado<T> leerRango(Path rutaArchivo, long desde, long hasta, FabricaLibro<T> fabrica) throws IOException {
+        EventoArchivo evento = EventoArchivo.iniciar("LECTURA", rutaArchivo);
+        try (FileChannel canal = FileChannel.open(rutaArchivo, StandardOpenOption.READ)) {
+            Resultado<T> resultado = procesarRango(canal, desde, Math.min(hasta, canal.size()), 1, fabrica);
+            evento.terminar(Math.max(0, hasta - desde), resultado.libros.size(), false);
+            return resultado;
+        }
+    }
+
+    private <T extends Libro> Resultado<T> procesarRango(FileChannel canal, long inicio, long tamaño, long primeraLinea,
+                                                       FabricaLibro<T> fabrica) throws IOException {
+        List<Fragmento<T>> fragmentos = dividir(canal, inicio, tamaño, fabrica);
+        try {
+            if (fragmentos.size() > 1) {
+                fragmentos.parallelStream().forEach(Fragmento::procesar);
+            } else {
+                fragmentos.forEach(Fragmento::procesar);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Unir los resultados en el orden del archivo
+        List<T> libros = new ArrayList<>();
+        ResumenErrores resumen = new ResumenErrores();
+        long lineaBase = primeraLinea;
+        for (Fragmento<T> fragmento : fragmentos) {
+            libros.addAll(fragmento.libros);
+            resumen.combinar(fragmento.resumen, lineaBase);
+            lineaBase += fragmento.lineas;
+        }
+        return new Resultado<>(libros, resumen);
+    }
+
+    private <T extends Libro> List<Fragmento<T>> dividir(FileChannel canal, long inicio, long tamaño, FabricaLibro<T> fabrica) throws IOException {
+        List<Fragmento<T>> fragmentos = new ArrayList<>();
+        long restante = tamaño - inicio;
+        if (restante <= 0) return fragmentos;
+
+        int cantidad = 1;
+        if (restante > UMBRAL_PARALELO) {
+            cantidad = (int) Math.max(Runtime.getRuntime().availableProcessors(), (restante + TAMAÑO_MAXIMO_FRAGMENTO - 1) / TAMAÑO_MAXIMO_FRAGMENTO);
+        }
+
+        long desde = inicio;
+        for (int i = 1; i <= cantidad && desde < tamaño; i++) {
+            long hasta = (i == cantidad) ? tamaño : buscarSiguienteLinea(canal, inicio + restante * i / cantidad, tamaño);
+            if (hasta > desde) {
+                fragmentos.add(new Fragmento<>(canal, desde, hasta, fabrica));
+            }
+            desde = hasta;
+        }
+        return fragmentos;
+    }
+
+    // Lectura secuencial en lotes de como máximo tamañoLote libros: la memoria usada no depende
+    // del tamaño del archivo. Los lotes llegan en el orden del archivo. Solo se lee hasta el byte
+    // 'limite' (lo que se añada después queda para otra lectura).
+    public <T extends Libro> ResumenErrores leerPorLotes(Path rutaArchivo, FabricaLibro<T> fabrica, int tamañoLote, long limite,
+                                                         ConsumidorLote<T> consumidor) throws IOException {
+        EventoArchivo evento = EventoArchivo.iniciar("LECTURA", rutaArchivo);
+        ResumenErrores resumen = new ResumenErrores();
+        try (FileChannel canal = FileChannel.open(rutaArchivo, StandardOpenOption.READ)) {
+            long tamaño = Math.min(limite, canal.size());
+            long desde = buscarSiguienteLinea(canal, 0, tamaño);
+            long lineaBase = 2;
+            while (desde < tamaño) {
+                long hasta = tamaño - desde <= TAMAÑO_MAXIMO_FRAGMENTO ? tamaño
+                        : buscarSiguienteLinea(canal, desde + TAMAÑO_MAXIMO_FRAGMENTO, tamaño);
+                Fragmento<T> fragmento = new Fragmento<>(canal, desde, hasta, fabrica, tamañoLote, consumidor);
+                try {
+                    fragmento.procesar();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                resumen.combinar(fragmento.resumen, lineaBase);
+                lineaBase += fragmento.lineas;
+                desde = hasta;
+            }
+            evento.terminar(tamaño, resumen.getLineasValidas(), false);
+        }
+        return resumen;
+    }
+
+    // Posición del primer byte posterior al siguiente salto de línea (o fin de archivo)
+    private static long buscarSiguienteLinea(FileChannel canal, long posicion, long tamaño) throws IOException {
+        ByteBuffer bloque = ByteBuffer.allocate(8192);
+        while (posicion < tamaño) {
+            bloque.clear();
+            int leidos = canal.read(bloque, posicion);
+            if (leidos <= 0) break;
+            for (int i = 0; i < leidos; i++) {
+                if (bloque.get(i) == SALTO_LINEA) {
+                    return posicion + i + 1;
+                }
+            }
+            posicion += leidos;
+        }
+        return tamaño;
+    }
+
+    private static final class Fragmento<T extends Libro> {
+        private final FileChannel canal;
+        private final long desde;
+        private final long hasta;
+        // Bytes del fragmento, solo mientras se procesa
+        private ByteBuffer buffer;
+        private final FabricaLibro<T> fabrica;
+        private final List<T> libros = new ArrayList<>();
+        // Solo en lectura por lotes: se entrega y vacía la lista al llegar a tamañoLote
+        private final int tamañoLote;
+        private final ConsumidorLote<T> consumidor;
+        private final ResumenErrores resumen = new ResumenErrores();
+        private long lineas;
+
+        // Reutilizados en cada línea del fragmento
+        private final int[] inicios = new int[CAMPOS + 1];
+        private final int[] finales = new int[CAMPOS + 1];
+        private boolean conEjemplares;
+        private byte[] temporal = new byte[256];
+        private final byte[][] bytesRepetidas = new byte[RANURAS_REPETIDAS][];
+        private final String[] repetidas = new String[RANURAS_REPETIDAS];
+
+        Fragmento(FileChannel canal, long desde, long hasta, FabricaLibro<T> fabrica) {
+            this(canal, desde, hasta, fabrica, Integer.MAX_VALUE, null);
+        }
+
+        Fragmento(FileChannel canal, long desde, long hasta, FabricaLibro<T> fabrica, int tamañoLote, ConsumidorLote<T> consumidor) {
+            this.canal = canal;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.fabrica = fabrica;
+            this.tamañoLote = tamañoLote;
+            this.consumidor = consumidor;
+        }
+
+        void procesar() {
+            leer();
+            int limite = buffer.limit();
+            int posicion = 0;
+            while (posicion < limite) {
+                int fin = posicion;
+                while (fin < limite && buffer.get(fin) != SALTO_LINEA) fin++;
+                procesarLinea(posicion, fin);
+                lineas++;
+                posicion = fin + 1;
+                if (consumidor != null && libros.size() >= tamañoLote) entregarLote();
+            }
+            if (consumidor != null && !libros.isEmpty()) entregarLote();
+            buffer = null;
+        }
+
+        // Lectura posicional: varios fragmentos pueden leer a la vez del mismo canal
+        private void leer() {
+            buffer = ByteBuffer.allocate((int) (hasta - desde));
+            try {
+                while (buffer.hasRemaining()) {
+                    if (canal.read(buffer, desde + buffer.position()) < 0) {
+                        throw new IOException("El archivo se acortó durante la lectura");
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip();
+        }
+
+        private void entregarLote() {
+            try {
+                consumidor.aceptar(libros);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            libros.clear();
+        }
+
+        private void procesarLinea(int inicio, int fin) {
+            if (estaEnBlanco(inicio, fin)) {
+                resumen.registrarVacia();
+                return;
+            }
+            try {
+                separarCampos(inicio, fin);
+                libros.add(fabrica.crear(
+                        parsearEntero(inicios[0], finales[0]),
+                        texto(inicios[1], finales[1]),
+                        textoRepetido(inicios[2], finales[2]),
+                        textoRepetido(inicios[3], finales[3]),
+                        parsearFecha(inicios[4], finales[4]),
+                        textoRepetido(inicios[5], finales[5]),
+                        parsearPrecio(inicios[6], finales[6]),
+                        conEjemplares ? parsearEjemplares(inicios[CAMPO_EJEMPLARES], finales[CAMPO_EJEMPLARES]) : 1
+                ));
+                resumen.registrarValida();
+            } catch (RuntimeException e) {
+                String motivo = e instanceof LineaInvalida ? e.getMessage() : e.getClass().getSimpleName() + ": " + e.getMessage();
+                resumen.registrarError(lineas, texto(inicio, fin), motivo);
+            }
+        }
+
+        // Localiza los 7 campos (y el de ejemplares si está), recortados, sin crear cadenas intermedias
+        private void separarCampos(int inicio, int fin) {
+            int campo = 0;
+            int desde = inicio;
+            for (int i = inicio; i < fin && campo < CAMPOS - 1; i++) {
+                if (buffer.get(i) == DELIMITADOR) {
+                    marcarCampo(campo++, desde, i);
+                    desde = i + 1;
+                }
+            }
+            if (campo < CAMPOS - 1) {
+                throw new LineaInvalida("faltan campos");
+            }
+            // El precio termina en el siguiente delimitador; después puede venir la cantidad
+            // de ejemplares (se ignoran campos extra)
+            int hasta = desde;
+            while (hasta < fin && buffer.get(hasta) != DELIMITADOR) hasta++;
+            marcarCampo(campo, desde, hasta);
+            conEjemplares = false;
+            if (hasta < fin) {
+                int desdeEjemplares = hasta + 1;
+                int hastaEjemplares = desdeEjemplares;
+                while (hastaEjemplares < fin && buffer.get(hastaEjemplares) != DELIMITADOR) hastaEjemplares++;
+                marcarCampo(CAMPO_EJEMPLARES, desdeEjemplares, hastaEjemplares);
+                conEjemplares = inicios[CAMPO_EJEMPLARES] < finales[CAMPO_EJEMPLARES];
+            }
+        }
+
+        private int parsearEjemplares(int desde, int hasta) {
+            int valor;
+            try {
+                valor = parsearEntero(desde, hasta);
+            } catch (LineaInvalida e) {
+                throw new LineaInvalida("cantidad de ejemplares inválida");
+            }
+            if (valor < 1) throw new LineaInvalida("cantidad de ejemplares inválida");
+            return valor;
+        }
+
+        private void marcarCampo(int campo, int desde, int hasta) {
+            while (desde < hasta && (buffer.get(desde) & 0xFF) <= ' ') desde++;
+            while (hasta > desde && (buffer.get(hasta - 1) & 0xFF) <= ' ') hasta--;
+            inicios[campo] = desde;
+            finales[campo] = hasta;
+        }
+
+        private boolean estaEnBlanco(int inicio, int fin) {
+            for (int i = inicio; i < fin; i++) {
+                if ((buffer.get(i) & 0xFF) > ' ') return false;
+            }
+            return true;
+        }
+
+        private int parsearEntero(int desde, int hasta) {
+            if (desde == hasta) throw new LineaInvalida("ID vacío");
+            boolean negativo = buffer.get(desde) == '-';
+            int i = (negativo || buffer.get(desde) == '+') ? desde + 1 : desde;
+            if (i == hasta) throw new LineaInvalida("ID inválido");
+            long valor = 0;
+            for (; i < hasta; i++) {
+                int digito = buffer.get(i) - '0';
+                if (digito < 0 || digito > 9) throw new LineaInvalida("ID inválido");
+                valor = valor * 10 + digito;
+                if (valor > (long) Integer.MAX_VALUE + 1) throw new LineaInvalida("ID fuera de rango");
+            }
+            valor = negativo ? -valor : valor;
+            if (valor > Integer.MAX_VALUE) throw new LineaInvalida("ID fuera de rango");
+            return (int) valor;
+        }
+
+        // Formato yyyy-MM-dd
+        private LocalDate parsearFecha(int desde, int hasta) {
+            if (hasta - desde != 10 || buffer.get(desde + 4) != '-' || buffer.get(desde + 7) != '-') {
+                throw new LineaInvalida("fecha inválida");
+            }
+            int anio = digitos(desde, desde + 4);
+            int mes = digitos(desde + 5, desde + 7);
+            int dia = digitos(desde + 8, desde + 10);
+            return LocalDate.of(anio, mes, dia);
+        }
+
+        private int digitos(int desde, int hasta) {
+            int valor = 0;
+            for (int i = desde; i < hasta; i++) {
+                int digito = buffer.get(i) - '0';
+                if (digito < 0 || digito > 9) throw new LineaInvalida("fecha inválida");
+                valor = valor * 10 + digito;
+            }
+            return valor;
+        }
+
+        // Decimal simple (p. ej. 15.00) directo de los bytes; otros formatos se delegan a BigDecimal
+        private BigDecimal parsearPrecio(int desde, int hasta) {
+            if (desde == hasta) throw new LineaInvalida("precio vacío");
+            boolean negativo = buffer.get(desde) == '-';
+            int i = (negativo || buffer.get(desde) == '+') ? desde + 1 : desde;
+            long sinEscala = 0;
+            int escala = -1;
+            int cifras = 0;
+            for (; i < hasta; i++) {
+                byte b = buffer.get(i);
+                if (b == '.' && escala < 0) {
+                    escala = 0;
+                } else if (b >= '0' && b <= '9' && cifras < 18) {
+                    sinEscala = sinEscala * 10 + (b - '0');
+                    cifras++;
+                    if (escala >= 0) escala++;
+                } else {
+                    return precioGeneral(desde, hasta);
+                }
+            }
+            if (cifras == 0) throw new LineaInvalida("precio inválido");
+            return BigDecimal.valueOf(negativo ? -sinEscala : sinEscala, Math.max(escala, 0));
+        }
+
+        private BigDecimal precioGeneral(int desde, int hasta) {
+            try {
+                return new BigDecimal(texto(desde, hasta));
+            } catch (NumberFormatException e) {
+                throw new LineaInvalida("precio inválido");
+            }
+        }
+
+        private String texto(int desde, int hasta) {
+            int largo = hasta - desde;
+            if (largo > temporal.length) {
+                temporal = new byte[Math.max(largo, temporal.length * 2)];
+            }
+            buffer.get(desde, temporal, 0, largo);
+            return new String(temporal, 0, largo, StandardCharsets.UTF_8);
+        }
+
+        private String textoRepetido(int desde, int hasta) {
+            int largo = hasta - desde;
+            if (largo > LARGO_MAXIMO_REPETIDA) return texto(desde, hasta);
+            int hash = largo;
+            for (int i = desde; i < hasta; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int ranura = (hash ^ (hash >>> 16)) & (RANURAS_REPETIDAS - 1);
+            byte[] guardados = bytesRepetidas[ranura];
+            if (guardados != null && guardados.length == largo && mismosBytes(guardados, desde)) {
+                return repetidas[ranura];
+            }
+            String valor = texto(desde, hasta);
+            bytesRepetidas[ranura] = Arrays.copyOf(temporal, largo);
+            repetidas[ranura] = valor;
+            return valor;
+        }
+
+        private boolean mismosBytes(byte[] guardados, int desde) {
+            for (int i = 0; i < guardados.length; i++) {
+                if (guardados[i] != buffer.get(desde + i)) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class LineaInvalida extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LineaInvalida(String motivo) {
+            super(motivo, null, false, false);
+        }
+    }
+}
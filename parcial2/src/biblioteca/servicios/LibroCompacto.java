@@ -0,0 +1,30 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Vista de una fila de AlmacenColumnar: no copia los datos, los lee de las columnas al pedirlos
+public final class LibroCompacto extends Libro {
+    private final AlmacenColumnar almacen;
+    private final int fila;
+
+    LibroCompacto(AlmacenColumnar almacen, int fila, int id) {
+        super(id);
+        this.almacen = almacen;
+        this.fila = fila;
+    }
+
+    boolean perteneceA(AlmacenColumnar otro) {
+        return almacen == otro;
+    }
+
+    @Override public String getTitulo() { return almacen.titulo(fila); }
+    @Override public String getAutor() { return almacen.autor(fila); }
+    @Override public String getGenero() { return almacen.genero(fila); }
+    @Override public LocalDate getFechaPublicacion() { return almacen.fechaPublicacion(fila); }
+    @Override public String getEditorial() { return almacen.editorial(fila); }
+    @Override public BigDecimal getPrecio() { return almacen.precio(fila); }
+    @Override public int getEjemplares() { return almacen.ejemplares(fila); }
+}
@@ -0,0 +1,117 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Prestamo;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Totales de multas en centavos (long) por usuario y por día de devolución, de modo que
+// consultarlos es O(1). La multa de un préstamo devuelto ya la calcula Prestamo al registrar la
+// devolución y aquí solo se suma. Los préstamos activos vencidos también deben: su multa crece
+// cada día, así que se calcula al consultar con calcularCentavos, una pasada sobre arreglos de
+// días epoch para todos los préstamos a la vez.
+public class MotorMultas {
+    // Día de fin de un préstamo que sigue activo: cuenta hasta el día de corte
+    public static final int SIN_DEVOLUCION = Integer.MAX_VALUE;
+
+    private final Map<String, LongAdder> multasPorUsuario = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> multasPorDia = new ConcurrentHashMap<>();
+
+    // Reconstruye los totales a partir del historial de devoluciones
+    public void cargar(Collection<Prestamo> devoluciones) {
+        limpiar();
+        agregar(devoluciones);
+    }
+
+    // Suma un bloque de devoluciones (p. ej. un segmento del historial) a los totales
+    public void agregar(Collection<Prestamo> devoluciones) {
+        for (Prestamo prestamo : devoluciones) {
+            acumular(prestamo, prestamo.getMultaCentavos());
+        }
+    }
+
+    // Suma los totales guardados de los segmentos del historial, sin leer sus devoluciones
+    public void agregar(TotalesHistorial totales) {
+        for (Map.Entry<String, Long> entrada : totales.getMultasPorUsuario().entrySet()) {
+            multasPorUsuario.computeIfAbsent(entrada.getKey(), k -> new LongAdder()).add(entrada.getValue());
+        }
+        for (Map.Entry<Integer, Long> entrada : totales.getMultasPorDia().entrySet()) {
+            multasPorDia.computeIfAbsent(entrada.getKey(), k -> new LongAdder()).add(entrada.getValue());
+        }
+    }
+
+    public void registrarDevolucion(Prestamo prestamo) {
+        acumular(prestamo, prestamo.getMultaCentavos());
+    }
+
+    // Multa de cada préstamo al día de corte. Sin objetos ni ramas en el ciclo: el JIT puede
+    // vectorizarlo. diasFin es el día de devolución o SIN_DEVOLUCION si sigue prestado.
+    public static void calcularCentavos(int[] diasPrestamo, int[] diasFin, int cantidad, int diaCorte, long[] multas) {
+        for (int i = 0; i < cantidad; i++) {
+            long retraso = (long) Math.min(diasFin[i], diaCorte) - diasPrestamo[i] - Prestamo.DIAS_PRESTAMO_ESTANDAR;
+            multas[i] = Math.max(0, retraso) * Prestamo.MULTA_POR_DIA_CENTAVOS;
+        }
+    }
+
+    // Multas que los préstamos activos llevan acumuladas al día de corte, por usuario (solo los que deben)
+    public static Map<String, Long> calcularEnCurso(Collection<Prestamo> activos, LocalDate corte) {
+        int cantidad = activos.size();
+        int[] diasPrestamo = new int[cantidad];
+        int[] diasFin = new int[cantidad];
+        String[] usuarios = new String[cantidad];
+        int i = 0;
+        for (Prestamo prestamo : activos) {
+            if (i == cantidad) break;
+            diasPrestamo[i] = (int) prestamo.getFechaPrestamo().toEpochDay();
+            diasFin[i] = SIN_DEVOLUCION;
+            usuarios[i++] = prestamo.getUsuarioId();
+        }
+        long[] multas = new long[i];
+        calcularCentavos(diasPrestamo, diasFin, i, (int) corte.toEpochDay(), multas);
+        Map<String, Long> porUsuario = new HashMap<>();
+        for (int j = 0; j < i; j++) {
+            if (multas[j] > 0) porUsuario.merge(usuarios[j], multas[j], Long::sum);
+        }
+        return porUsuario;
+    }
+
+    // Lo que debe el usuario al día de corte: sus devoluciones más sus préstamos activos
+    public long getAdeudadoCentavos(String usuarioId, Collection<Prestamo> activosDelUsuario, LocalDate corte) {
+        return getMultasDeUsuarioCentavos(usuarioId) + calcularEnCurso(activosDelUsuario, corte).getOrDefault(usuarioId, 0L);
+    }
+
+    // Lo que debe cada usuario al día de corte: una pasada sobre los activos más los totales de devoluciones
+    public Map<String, Long> getAdeudados(Collection<Prestamo> activos, LocalDate corte) {
+        Map<String, Long> adeudados = calcularEnCurso(activos, corte);
+        for (Map.Entry<String, LongAdder> entrada : multasPorUsuario.entrySet()) {
+            long total = entrada.getValue().sum();
+            if (total > 0) adeudados.merge(entrada.getKey(), total, Long::sum);
+        }
+        return adeudados;
+    }
+
+    public long getMultasDeUsuarioCentavos(String usuarioId) {
+        LongAdder total = multasPorUsuario.get(usuarioId);
+        return total == null ? 0 : total.sum();
+    }
+
+    public long getMultasDelDiaCentavos(LocalDate fecha) {
+        LongAdder total = multasPorDia.get((int) fecha.toEpochDay());
+        return total == null ? 0 : total.sum();
+    }
+
+    public void limpiar() {
+        multasPorUsuario.clear();
+        multasPorDia.clear();
+    }
+
+    private void acumular(Prestamo prestamo, long centavos) {
+        if (centavos <= 0 || prestamo.getFechaDevolucion() == null) return;
+        multasPorUsuario.computeIfAbsent(prestamo.getUsuarioId(), k -> new LongAdder()).add(centavos);
+        multasPorDia.computeIfAbsent((int) prestamo.getFechaDevolucion().toEpochDay(), k -> new LongAdder()).add(centavos);
+    }
+}
@@ -0,0 +1,273 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Reservas por título: cada libro tiene su cola de espera (mayor prioridad primero y, a igual
+// prioridad, por orden de llegada). Cuando vuelve un ejemplar no pasa al catálogo si alguien lo
+// espera: queda apartado para el primero de la cola durante DURACION_APARTADO. Los apartados se
+// vencen de forma perezosa con una rueda de temporización (una ranura por hora): cada operación
+// revisa solo las ranuras de las horas transcurridas desde la anterior. Un apartado vencido pasa
+// al siguiente de la cola o, si no queda nadie, vuelve al catálogo.
+// El estado está protegido por el monitor del motor, pero préstamos y devoluciones de libros sin
+// reservas ni apartados no lo toman: lo comprueban antes en pendientes (sin bloqueo).
+public class MotorReservas {
+    public static final Duration DURACION_APARTADO = Duration.ofHours(48);
+    public static final int PRIORIDAD_NORMAL = 0;
+
+    // Más ranuras que horas dura un apartado: cada uno vence en la primera vuelta de la rueda
+    private static final int RANURAS = 64;
+    private static final long MILIS_POR_HORA = 3_600_000L;
+
+    public static final class Reserva implements Comparable<Reserva> {
+        private final int libroId;
+        private final String usuarioId;
+        private final int prioridad;
+        private final long secuencia;
+        private boolean cancelada;
+
+        Reserva(int libroId, String usuarioId, int prioridad, long secuencia) {
+            this.libroId = libroId;
+            this.usuarioId = usuarioId;
+            this.prioridad = prioridad;
+            this.secuencia = secuencia;
+        }
+
+        public int getLibroId() { return libroId; }
+        public String getUsuarioId() { return usuarioId; }
+        public int getPrioridad() { return prioridad; }
+
+        @Override
+        public int compareTo(Reserva otra) {
+            int comparacion = Integer.compare(otra.prioridad, prioridad);
+            return comparacion != 0 ? comparacion : Long.compare(secuencia, otra.secuencia);
+        }
+    }
+
+    public static final class Apartado {
+        private final Libro libro;
+        private final String usuarioId;
+        private final long horaVencimiento;
+        private boolean vigente = true;
+
+        Apartado(Libro libro, String usuarioId, long horaVencimiento) {
+            this.libro = libro;
+            this.usuarioId = usuarioId;
+            this.horaVencimiento = horaVencimiento;
+        }
+
+        public Libro getLibro() { return libro; }
+        public String getUsuarioId() { return usuarioId; }
+        public Instant getVencimiento() { return Instant.ofEpochMilli(horaVencimiento * MILIS_POR_HORA); }
+    }
+
+    private final CatalogoLibros catalogo;
+    private final Clock reloj;
+    private final Map<Integer, PriorityQueue<Reserva>> esperas = new HashMap<>();
+    // Libro -> usuarios en su cola, para rechazar reservas repetidas y cancelar sin recorrerla
+    private final Map<Integer, Map<String, Reserva>> reservasPorLibro = new HashMap<>();
+    private final Map<String, List<Apartado>> apartadosPorUsuario = new HashMap<>();
+    // Libro -> reservas en cola más apartados vigentes; solo están los libros con alguno. Se
+    // modifica con el monitor tomado y se lee sin él
+    private final Map<Integer, Integer> pendientes = new ConcurrentHashMap<>();
+    private final List<List<Apartado>> ranuras = new ArrayList<>(RANURAS);
+    private long horaRevisada;
+    private long secuencia;
+    private Consumer<Apartado> aviso = apartado -> { };
+
+    public MotorReservas(CatalogoLibros catalogo) {
+        this(catalogo, Clock.systemDefaultZone());
+    }
+
+    public MotorReservas(CatalogoLibros catalogo, Clock reloj) {
+        this.catalogo = catalogo;
+        this.reloj = reloj;
+        for (int i = 0; i < RANURAS; i++) {
+            ranuras.add(new ArrayList<>());
+        }
+        this.horaRevisada = horaActual();
+    }
+
+    // Se llama con cada apartado nuevo, también los que surgen al vencer otro
+    public synchronized void setAviso(Consumer<Apartado> aviso) {
+        this.aviso = aviso;
+    }
+
+    // Agrega al usuario a la cola del libro; false si ya estaba en ella o ya tiene un ejemplar apartado.
+    // Si hay un ejemplar en el catálogo (p. ej. devuelto mientras tanto) se aparta en el acto.
+    public synchronized boolean reservar(int libroId, String usuarioId, int prioridad) {
+        revisarVencimientos();
+        if (buscarApartado(libroId, usuarioId) != null) return false;
+        Map<String, Reserva> enCola = reservasPorLibro.computeIfAbsent(libroId, id -> new HashMap<>());
+        if (enCola.containsKey(usuarioId)) return false;
+        Reserva reserva = new Reserva(libroId, usuarioId, prioridad, secuencia++);
+        enCola.put(usuarioId, reserva);
+        contar(libroId, 1);
+        esperas.computeIfAbsent(libroId, id -> new PriorityQueue<>()).add(reserva);
+        atender(libroId);
+        return true;
+    }
+
+    // Ejemplares del libro que están en el catálogo (comprados o devueltos sin nadie esperando)
+    // pasan a los primeros de la cola; sin cola no hace nada
+    public void atender(int libroId) {
+        if (!tienePendientes(libroId)) return;
+        atenderCola(libroId);
+    }
+
+    private synchronized void atenderCola(int libroId) {
+        Libro libro;
+        while (enEspera(libroId) > 0 && (libro = catalogo.retirar(libroId)) != null) {
+            apartarParaSiguiente(libro);
+        }
+    }
+
+    // La reserva sale de la cola de forma perezosa: se descarta al llegar a la cabeza
+    public synchronized boolean cancelar(int libroId, String usuarioId) {
+        Map<String, Reserva> enCola = reservasPorLibro.get(libroId);
+        Reserva reserva = enCola == null ? null : enCola.remove(usuarioId);
+        if (reserva == null) return false;
+        reserva.cancelada = true;
+        contar(libroId, -1);
+        if (enCola.isEmpty()) {
+            reservasPorLibro.remove(libroId);
+            esperas.remove(libroId);
+        }
+        return true;
+    }
+
+    // Ejemplar devuelto: queda apartado para el primero de la cola; false si nadie lo espera
+    public boolean recibirDevolucion(Libro libro) {
+        if (!tienePendientes(libro.getId())) return false;
+        return apartarDevuelto(libro);
+    }
+
+    private synchronized boolean apartarDevuelto(Libro libro) {
+        revisarVencimientos();
+        return apartarParaSiguiente(libro);
+    }
+
+    // El usuario retira su ejemplar apartado; null si no tiene ninguno vigente de ese libro
+    public Apartado retirarApartado(int libroId, String usuarioId) {
+        if (!tienePendientes(libroId)) return null;
+        return retirar(libroId, usuarioId);
+    }
+
+    private synchronized Apartado retirar(int libroId, String usuarioId) {
+        revisarVencimientos();
+        Apartado apartado = buscarApartado(libroId, usuarioId);
+        if (apartado == null) return null;
+        quitarApartado(apartado);
+        return apartado;
+    }
+
+    // Deshace un retiro que no llegó a registrarse (p. ej. error del diario): el apartado se repone tal cual
+    public synchronized void reponerApartado(Apartado retirado) {
+        programar(new Apartado(retirado.libro, retirado.usuarioId, retirado.horaVencimiento));
+    }
+
+    public synchronized List<Apartado> apartadosDe(String usuarioId) {
+        revisarVencimientos();
+        return new ArrayList<>(apartadosPorUsuario.getOrDefault(usuarioId, Collections.emptyList()));
+    }
+
+    // Sin bloqueo: un libro que no está aquí no tiene cola ni apartados (un vencimiento pendiente
+    // de revisar lo sigue contando hasta que otra operación pase por él)
+    public boolean tienePendientes(int libroId) {
+        return pendientes.containsKey(libroId);
+    }
+
+    public synchronized int enEspera(int libroId) {
+        Map<String, Reserva> enCola = reservasPorLibro.get(libroId);
+        return enCola == null ? 0 : enCola.size();
+    }
+
+    // Primero de la cola que no canceló; el ejemplar queda apartado para él
+    private boolean apartarParaSiguiente(Libro libro) {
+        PriorityQueue<Reserva> cola = esperas.get(libro.getId());
+        Reserva siguiente = null;
+        while (cola != null && !cola.isEmpty()) {
+            Reserva reserva = cola.poll();
+            if (!reserva.cancelada) {
+                siguiente = reserva;
+                break;
+            }
+        }
+        if (siguiente == null) return false;
+        cancelar(siguiente.libroId, siguiente.usuarioId);
+
+        long vencimiento = horaActual() + DURACION_APARTADO.toHours();
+        Apartado apartado = new Apartado(libro, siguiente.usuarioId, vencimiento);
+        programar(apartado);
+        aviso.accept(apartado);
+        return true;
+    }
+
+    private void programar(Apartado apartado) {
+        contar(apartado.libro.getId(), 1);
+        apartadosPorUsuario.computeIfAbsent(apartado.usuarioId, u -> new ArrayList<>()).add(apartado);
+        // Un apartado repuesto pudo vencer ya: va a la próxima ranura que se revisará
+        long hora = Math.max(apartado.horaVencimiento, horaRevisada + 1);
+        ranuras.get((int) Math.floorMod(hora, (long) RANURAS)).add(apartado);
+    }
+
+    // Procesa las ranuras de las horas transcurridas desde la última revisión (todas, como mucho una vuelta)
+    private void revisarVencimientos() {
+        long ahora = horaActual();
+        if (ahora <= horaRevisada) return;
+        long desde = Math.max(horaRevisada + 1, ahora - RANURAS + 1);
+        horaRevisada = ahora;
+        List<Apartado> vencidos = new ArrayList<>();
+        for (long hora = desde; hora <= ahora; hora++) {
+            List<Apartado> ranura = ranuras.get((int) Math.floorMod(hora, (long) RANURAS));
+            Iterator<Apartado> it = ranura.iterator();
+            while (it.hasNext()) {
+                Apartado apartado = it.next();
+                if (!apartado.vigente) {
+                    it.remove();
+                } else if (apartado.horaVencimiento <= ahora) {
+                    it.remove();
+                    vencidos.add(apartado);
+                }
+            }
+        }
+        for (Apartado apartado : vencidos) {
+            quitarApartado(apartado);
+            if (!apartarParaSiguiente(apartado.libro)) {
+                catalogo.devolver(apartado.libro);
+            }
+        }
+    }
+
+    private Apartado buscarApartado(int libroId, String usuarioId) {
+        for (Apartado apartado : apartadosPorUsuario.getOrDefault(usuarioId, Collections.emptyList())) {
+            if (apartado.libro.getId() == libroId) return apartado;
+        }
+        return null;
+    }
+
+    // Queda en su ranura marcado como no vigente hasta que la rueda pase por ella
+    private void quitarApartado(Apartado apartado) {
+        apartado.vigente = false;
+        contar(apartado.libro.getId(), -1);
+        List<Apartado> delUsuario = apartadosPorUsuario.get(apartado.usuarioId);
+        if (delUsuario != null) {
+            delUsuario.remove(apartado);
+            if (delUsuario.isEmpty()) apartadosPorUsuario.remove(apartado.usuarioId);
+        }
+    }
+
+    private void contar(int libroId, int cambio) {
+        pendientes.merge(libroId, cambio, (actual, suma) -> actual + suma == 0 ? null : actual + suma);
+    }
+
+    private long horaActual() {
+        return Math.floorDiv(reloj.millis(), MILIS_POR_HORA);
+    }
+}
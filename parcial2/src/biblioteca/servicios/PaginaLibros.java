@@ -0,0 +1,47 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+
+import java.util.Collections;
+import java.util.List;
+
+// Una página de libros disponibles ordenados por el campo buscado. Para pedir la siguiente
+// se pasa getSiguiente() a la misma consulta; es null cuando no quedan más resultados.
+// Una página con siguiente puede traer menos libros que los pedidos, o ninguno, si recorrió
+// muchos títulos sin ejemplares disponibles.
+public class PaginaLibros {
+
+    public enum Campo {
+        TITULO, AUTOR, GENERO
+    }
+
+    // Posición tras el último libro de la página: clave normalizada e ID
+    public static final class Cursor {
+        private final Campo campo;
+        private final String prefijo;
+        final String clave;
+        final int id;
+
+        Cursor(Campo campo, String prefijo, String clave, int id) {
+            this.campo = campo;
+            this.prefijo = prefijo;
+            this.clave = clave;
+            this.id = id;
+        }
+
+        public Campo getCampo() { return campo; }
+        public String getPrefijo() { return prefijo; }
+    }
+
+    private final List<Libro> libros;
+    private final Cursor siguiente;
+
+    PaginaLibros(List<Libro> libros, Cursor siguiente) {
+        this.libros = Collections.unmodifiableList(libros);
+        this.siguiente = siguiente;
+    }
+
+    public List<Libro> getLibros() { return libros; }
+    public Cursor getSiguiente() { return siguiente; }
+    public boolean hayMas() { return siguiente != null; }
+}
@@ -0,0 +1,191 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Prestamo;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Préstamos activos indexados por libro y por usuario, y ordenados por fecha de vencimiento.
+// Un título con varios ejemplares puede tener varios préstamos a la vez. Quitar un préstamo
+// es atómico sobre el índice por libro: si dos hilos intentan devolver el mismo préstamo,
+// solo uno lo consigue.
+public class RegistroPrestamosActivos {
+
+    private static final class Entrada implements Comparable<Entrada> {
+        final Prestamo prestamo;
+        final long vencimiento;
+        final long secuencia;
+
+        Entrada(Prestamo prestamo, long secuencia) {
+            this.prestamo = prestamo;
+            this.vencimiento = prestamo.getFechaVencimiento().toEpochDay();
+            this.secuencia = secuencia;
+        }
+
+        private Entrada(long vencimiento, long secuencia) {
+            this.prestamo = null;
+            this.vencimiento = vencimiento;
+            this.secuencia = secuencia;
+        }
+
+        @Override
+        public int compareTo(Entrada otra) {
+            int comparacion = Long.compare(vencimiento, otra.vencimiento);
+            return comparacion != 0 ? comparacion : Long.compare(secuencia, otra.secuencia);
+        }
+    }
+
+    // Préstamos de cada título, del que vence primero al último
+    private final Map<Integer, ConcurrentSkipListSet<Entrada>> porLibro = new ConcurrentHashMap<>();
+    private final Map<String, Set<Entrada>> porUsuario = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entrada> porVencimiento = new ConcurrentSkipListSet<>();
+    private final AtomicLong secuencia = new AtomicLong();
+    private final AtomicInteger cantidad = new AtomicInteger();
+
+    public void agregar(Prestamo prestamo) {
+        Entrada entrada = new Entrada(prestamo, secuencia.incrementAndGet());
+        // Índices secundarios primero: cuando el préstamo aparece por libro ya está completo
+        porVencimiento.add(entrada);
+        porUsuario.compute(prestamo.getUsuarioId(), (usuario, entradas) -> {
+            Set<Entrada> conjunto = entradas != null ? entradas : ConcurrentHashMap.newKeySet();
+            conjunto.add(entrada);
+            return conjunto;
+        });
+        porLibro.compute(prestamo.getLibro().getId(), (libroId, entradas) -> {
+            ConcurrentSkipListSet<Entrada> conjunto = entradas != null ? entradas : new ConcurrentSkipListSet<>();
+            conjunto.add(entrada);
+            return conjunto;
+        });
+        cantidad.incrementAndGet();
+    }
+
+    // Uno de los préstamos activos del título (el que vence primero)
+    public Prestamo buscarPorLibro(int libroId) {
+        ConcurrentSkipListSet<Entrada> entradas = porLibro.get(libroId);
+        if (entradas == null) return null;
+        Entrada entrada = primera(entradas);
+        return entrada == null ? null : entrada.prestamo;
+    }
+
+    // Quita el préstamo del título que vence primero
+    public Prestamo quitarPorLibro(int libroId) {
+        ConcurrentSkipListSet<Entrada> entradas = porLibro.get(libroId);
+        if (entradas == null) return null;
+        Entrada entrada = entradas.pollFirst();
+        if (entrada == null) return null;
+        quitado(libroId, entrada);
+        return entrada.prestamo;
+    }
+
+    // Quita el préstamo del título que tiene el usuario (el que vence primero si tiene varios ejemplares)
+    public Prestamo quitarDeUsuario(String usuarioId, int libroId) {
+        ConcurrentSkipListSet<Entrada> entradas = porLibro.get(libroId);
+        if (entradas == null) return null;
+        for (Entrada entrada : entradas) {
+            if (entrada.prestamo.getUsuarioId().equals(usuarioId) && entradas.remove(entrada)) {
+                quitado(libroId, entrada);
+                return entrada.prestamo;
+            }
+        }
+        return null;
+    }
+
+    // El préstamo que vence primero (con plazo fijo, el más antiguo)
+    public Prestamo quitarMasAntiguo() {
+        for (Entrada entrada : porVencimiento) {
+            int libroId = entrada.prestamo.getLibro().getId();
+            ConcurrentSkipListSet<Entrada> entradas = porLibro.get(libroId);
+            if (entradas != null && entradas.remove(entrada)) {
+                quitado(libroId, entrada);
+                return entrada.prestamo;
+            }
+        }
+        return null;
+    }
+
+    public List<Prestamo> prestamosDeUsuario(String usuarioId) {
+        Set<Entrada> entradas = porUsuario.get(usuarioId);
+        if (entradas == null) return Collections.emptyList();
+        List<Prestamo> resultado = new ArrayList<>(entradas.size());
+        for (Entrada entrada : new TreeSet<>(entradas)) {
+            resultado.add(entrada.prestamo);
+        }
+        return resultado;
+    }
+
+    // Préstamos cuyo vencimiento es anterior a la fecha dada, del más atrasado al menos:
+    // O(log n + k) sobre el índice ordenado
+    public List<Prestamo> vencidosAl(LocalDate fecha) {
+        List<Prestamo> resultado = new ArrayList<>();
+        for (Entrada entrada : porVencimiento.headSet(new Entrada(fecha.toEpochDay(), Long.MIN_VALUE))) {
+            resultado.add(entrada.prestamo);
+        }
+        return resultado;
+    }
+
+    // Vista en orden de vencimiento, sin copiar
+    public Collection<Prestamo> prestamos() {
+        return new AbstractCollection<Prestamo>() {
+            @Override
+            public Iterator<Prestamo> iterator() {
+                Iterator<Entrada> entradas = porVencimiento.iterator();
+                return new Iterator<Prestamo>() {
+                    @Override
+                    public boolean hasNext() { return entradas.hasNext(); }
+
+                    @Override
+                    public Prestamo next() { return entradas.next().prestamo; }
+                };
+            }
+
+            @Override
+            public int size() {
+                return cantidad.get();
+            }
+        };
+    }
+
+    public int tamaño() {
+        return cantidad.get();
+    }
+
+    public boolean estaVacio() {
+        return cantidad.get() == 0;
+    }
+
+    public void limpiar() {
+        porLibro.clear();
+        porUsuario.clear();
+        porVencimiento.clear();
+        cantidad.set(0);
+    }
+
+    private static Entrada primera(ConcurrentSkipListSet<Entrada> entradas) {
+        try {
+            return entradas.first();
+        } catch (NoSuchElementException e) {
+            // Se vació entre la comprobación y la lectura
+            return null;
+        }
+    }
+
+    // Tras ganar la entrada: se quita de los demás índices y, si el título se quedó sin
+    // préstamos, su conjunto (computeIfPresent es atómico frente a un alta simultánea)
+    private void quitado(int libroId, Entrada entrada) {
+        cantidad.decrementAndGet();
+        desindexar(entrada);
+        porLibro.computeIfPresent(libroId, (id, entradas) -> entradas.isEmpty() ? null : entradas);
+    }
+
+    private void desindexar(Entrada entrada) {
+        porVencimiento.remove(entrada);
+        porUsuario.computeIfPresent(entrada.prestamo.getUsuarioId(), (usuario, entradas) -> {
+            entradas.remove(entrada);
+            return entradas.isEmpty() ? null : entradas;
+        });
+    }
+}
@@ -0,0 +1,78 @@
+package biblioteca.servicios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Resumen de una carga de archivo: líneas procesadas y muestra de las líneas con error
+public class ResumenErrores {
+    public static final int MAXIMO_MUESTRAS = 20;
+
+    public static class ErrorLinea {
+        private final long numeroLinea;
+        private final String contenido;
+        private final String motivo;
+
+        public ErrorLinea(long numeroLinea, String contenido, String motivo) {
+            this.numeroLinea = numeroLinea;
+            this.contenido = contenido;
+            this.motivo = motivo;
+        }
+
+        public long getNumeroLinea() { return numeroLinea; }
+        public String getContenido() { return contenido; }
+        public String getMotivo() { return motivo; }
+
+        @Override
+        public String toString() {
+            return String.format("línea %d (%s): %s", numeroLinea, motivo, contenido);
+        }
+    }
+
+    private long lineasLeidas;
+    private long lineasValidas;
+    private long lineasConError;
+    private final List<ErrorLinea> muestras = new ArrayList<>();
+
+    void registrarValida() {
+        lineasLeidas++;
+        lineasValidas++;
+    }
+
+    void registrarVacia() {
+        lineasLeidas++;
+    }
+
+    void registrarError(long numeroLinea, String contenido, String motivo) {
+        lineasLeidas++;
+        lineasConError++;
+        if (muestras.size() < MAXIMO_MUESTRAS) {
+            muestras.add(new ErrorLinea(numeroLinea, contenido, motivo));
+        }
+    }
+
+    // Combina el resumen de un fragmento posterior; sus números de línea se desplazan
+    void combinar(ResumenErrores otro, long desplazamientoLineas) {
+        lineasLeidas += otro.lineasLeidas;
+        lineasValidas += otro.lineasValidas;
+        lineasConError += otro.lineasConError;
+        for (ErrorLinea error : otro.muestras) {
+            if (muestras.size() >= MAXIMO_MUESTRAS) break;
+            muestras.add(new ErrorLinea(error.numeroLinea + desplazamientoLineas, error.contenido, error.motivo));
+        }
+    }
+
+    public long getLineasLeidas() { return lineasLeidas; }
+    public long getLineasValidas() { return lineasValidas; }
+    public long getLineasConError() { return lineasConError; }
+    public List<ErrorLinea> getMuestras() { return Collections.unmodifiableList(muestras); }
+
+    public boolean tieneErrores() {
+        return lineasConError > 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d líneas leídas, %d válidas, %d con error", lineasLeidas, lineasValidas, lineasConError);
+    }
+}
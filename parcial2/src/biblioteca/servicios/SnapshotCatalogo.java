@@ -0,0 +1,399 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+import biblioteca.metricas.EventoArchivo;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Copia binaria de Compras.txt (Compras-NNNNNN.bin) para arrancar sin volver a leer el texto.
+// Formato: encabezado, filas de ancho fijo, índice ID -> (fila, ejemplares) ordenado por ID,
+// tabla de desplazamientos y bloque de cadenas UTF-8 (autor, género, etc. se guardan una sola vez).
+// Se abre con memory mapping y los Libro se construyen solo al consultarlos. Cada copia nueva
+// lleva el número siguiente y las anteriores se borran cuando ya no están mapeadas: en Windows
+// un archivo mapeado no se puede reemplazar.
+public class SnapshotCatalogo {
+    private static final int MAGICO = 0x4C494252; // "LIBR"
+    private static final int VERSION = 2;
+    private static final int TAMAÑO_ENCABEZADO = 44;
+    private static final int TAMAÑO_FILA = 40;
+    private static final int TAMAÑO_ENTRADA_INDICE = 12;
+    private static final String EXTENSION = ".bin";
+
+    private final MappedByteBuffer datos;
+    private final long generacion;
+    private final int filas;
+    private final int idsUnicos;
+    private final int totalCadenas;
+    private final int inicioIndice;
+    private final int inicioDesplazamientos;
+    private final int inicioCadenas;
+
+    private SnapshotCatalogo(MappedByteBuffer datos, long generacion) {
+        this.datos = datos;
+        this.generacion = generacion;
+        this.filas = datos.getInt(24);
+        this.idsUnicos = datos.getInt(28);
+        this.totalCadenas = datos.getInt(32);
+        this.inicioIndice = TAMAÑO_ENCABEZADO + filas * TAMAÑO_FILA;
+        this.inicioDesplazamientos = inicioIndice + idsUnicos * TAMAÑO_ENTRADA_INDICE;
+        this.inicioCadenas = inicioDesplazamientos + (totalCadenas + 1) * 4;
+    }
+
+    // Generación 0 es el Compras.bin de versiones anteriores
+    public static Path rutaPara(Path rutaCompras, long generacion) {
+        return rutaCompras.resolveSibling(generacion == 0 ? nombreBase(rutaCompras) + EXTENSION
+                : String.format("%s-%06d%s", nombreBase(rutaCompras), generacion, EXTENSION));
+    }
+
+    // La copia más reciente; null si no hay ninguna o si Compras.txt cambió después de escribirla.
+    // Las demás se borran.
+    public static SnapshotCatalogo abrirSiVigente(Path rutaCompras) throws IOException {
+        List<Long> generaciones = generaciones(rutaCompras);
+        if (generaciones.isEmpty() || !Files.exists(rutaCompras)) return null;
+        long ultima = generaciones.get(generaciones.size() - 1);
+        SnapshotCatalogo snapshot = abrir(rutaCompras, ultima);
+        for (long generacion : generaciones) {
+            if (generacion != ultima || snapshot == null) borrar(rutaPara(rutaCompras, generacion));
+        }
+        return snapshot;
+    }
+
+    private static SnapshotCatalogo abrir(Path rutaCompras, long generacion) {
+        try (FileChannel canal = FileChannel.open(rutaPara(rutaCompras, generacion), StandardOpenOption.READ)) {
+            if (canal.size() < TAMAÑO_ENCABEZADO || canal.size() > Integer.MAX_VALUE) return null;
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (datos.getInt(0) != MAGICO || datos.getInt(4) != VERSION) return null;
+            if (datos.getLong(8) != Files.size(rutaCompras)
+                    || datos.getLong(16) != Files.getLastModifiedTime(rutaCompras).toMillis()) {
+                return null;
+            }
+            return new SnapshotCatalogo(datos, generacion);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Escribe la copia binaria de todas las compras, asociada al estado actual de Compras.txt
+    public static void escribir(Path rutaCompras, Iterable<? extends Libro> compras) throws IOException {
+        List<Long> generaciones = generaciones(rutaCompras);
+        long generacion = generaciones.isEmpty() ? 1 : generaciones.get(generaciones.size() - 1) + 1;
+        Map<String, Integer> diccionario = new HashMap<>();
+        List<String> cadenas = new ArrayList<>();
+        ByteArrayOutputStream bytesFilas = new ByteArrayOutputStream();
+        DataOutputStream outFilas = new DataOutputStream(bytesFilas);
+        // Última fila de cada ID (la misma que conserva el catálogo en memoria) y ejemplares de todas sus filas
+        TreeMap<Integer, int[]> indice = new TreeMap<>();
+        int filas = 0;
+        for (Libro libro : compras) {
+            escribirFila(outFilas, libro, 0, diccionario, cadenas);
+            agregarAlIndice(indice, libro, filas++);
+        }
+
+        Path ruta = rutaPara(rutaCompras, generacion);
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        EventoArchivo evento = EventoArchivo.iniciar("SNAPSHOT", ruta);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+            escribirEncabezado(out, rutaCompras, filas, indice.size(), cadenas.size());
+            bytesFilas.writeTo(out);
+            for (Map.Entry<Integer, int[]> entrada : indice.entrySet()) {
+                escribirEntrada(out, entrada.getKey(), entrada.getValue());
+            }
+            escribirCadenas(out, 0, cadenas);
+        }
+        Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evento.terminar(Files.size(ruta), filas, true);
+        for (long anterior : generaciones) {
+            borrar(rutaPara(rutaCompras, anterior));
+        }
+    }
+
+    // Copia nueva con los libros añadidos a Compras.txt después de esta: las filas, el índice y
+    // las cadenas de esta se copian tal cual (sin construir sus Libro) y se les suman las nuevas.
+    // Esta copia sigue mapeada; se borra en el próximo arranque si ahora no se puede.
+    public void actualizar(Path rutaCompras, List<? extends Libro> nuevos) throws IOException {
+        Map<String, Integer> diccionario = new HashMap<>();
+        List<String> cadenas = new ArrayList<>();
+        ByteArrayOutputStream bytesFilas = new ByteArrayOutputStream();
+        DataOutputStream outFilas = new DataOutputStream(bytesFilas);
+        TreeMap<Integer, int[]> indiceNuevos = new TreeMap<>();
+        int fila = filas;
+        for (Libro libro : nuevos) {
+            escribirFila(outFilas, libro, totalCadenas, diccionario, cadenas);
+            agregarAlIndice(indiceNuevos, libro, fila++);
+        }
+        int nuevosIds = 0;
+        for (int id : indiceNuevos.keySet()) {
+            if (posicionEnIndice(id) < 0) nuevosIds++;
+        }
+
+        Path ruta = rutaPara(rutaCompras, generacion + 1);
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        EventoArchivo evento = EventoArchivo.iniciar("SNAPSHOT", ruta);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+            escribirEncabezado(out, rutaCompras, fila, idsUnicos + nuevosIds, totalCadenas + cadenas.size());
+            copiar(out, TAMAÑO_ENCABEZADO, inicioIndice);
+            bytesFilas.writeTo(out);
+
+            // Mezcla de los dos índices ordenados; un ID repetido queda con la fila nueva y la suma de ejemplares
+            Iterator<Map.Entry<Integer, int[]>> it = indiceNuevos.entrySet().iterator();
+            Map.Entry<Integer, int[]> nuevo = it.hasNext() ? it.next() : null;
+            for (int i = 0; i < idsUnicos; i++) {
+                int id = idEnIndice(i);
+                while (nuevo != null && nuevo.getKey() < id) {
+                    escribirEntrada(out, nuevo.getKey(), nuevo.getValue());
+                    nuevo = it.hasNext() ? it.next() : null;
+                }
+                if (nuevo != null && nuevo.getKey() == id) {
+                    escribirEntrada(out, id, new int[]{nuevo.getValue()[0], ejemplaresEnIndice(i) + nuevo.getValue()[1]});
+                    nuevo = it.hasNext() ? it.next() : null;
+                } else {
+                    escribirEntrada(out, id, new int[]{filaEnIndice(i), ejemplaresEnIndice(i)});
+                }
+            }
+            while (nuevo != null) {
+                escribirEntrada(out, nuevo.getKey(), nuevo.getValue());
+                nuevo = it.hasNext() ? it.next() : null;
+            }
+
+            // Desplazamientos: los de esta copia y, a continuación, los de las cadenas nuevas
+            copiar(out, inicioDesplazamientos, inicioCadenas);
+            int finCadenas = datos.getInt(inicioDesplazamientos + totalCadenas * 4);
+            List<byte[]> codificadas = new ArrayList<>(cadenas.size());
+            int desplazamiento = finCadenas;
+            for (String cadena : cadenas) {
+                byte[] bytes = cadena.getBytes(StandardCharsets.UTF_8);
+                codificadas.add(bytes);
+                desplazamiento += bytes.length;
+                out.writeInt(desplazamiento);
+            }
+            copiar(out, inicioCadenas, inicioCadenas + finCadenas);
+            for (byte[] bytes : codificadas) {
+                out.write(bytes);
+            }
+        }
+        Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evento.terminar(Files.size(ruta), fila, true);
+        borrar(rutaPara(rutaCompras, generacion));
+    }
+
+    private static void escribirEncabezado(DataOutputStream out, Path rutaCompras, int filas, int ids, int cadenas) throws IOException {
+        out.writeInt(MAGICO);
+        out.writeInt(VERSION);
+        out.writeLong(Files.size(rutaCompras));
+        out.writeLong(Files.getLastModifiedTime(rutaCompras).toMillis());
+        out.writeInt(filas);
+        out.writeInt(ids);
+        out.writeInt(cadenas);
+        out.writeLong(0); // reservado
+    }
+
+    // Los códigos de cadena nuevos empiezan en primerCodigo
+    private static void escribirFila(DataOutputStream out, Libro libro, int primerCodigo,
+                                     Map<String, Integer> diccionario, List<String> cadenas) throws IOException {
+        BigDecimal precio = libro.getPrecio();
+        long sinEscala;
+        try {
+            sinEscala = precio.unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IOException("Precio fuera de rango para la copia binaria: " + precio + " (libro " + libro.getId() + ")");
+        }
+        out.writeInt(libro.getId());
+        out.writeInt(codificar(libro.getTitulo(), primerCodigo, diccionario, cadenas));
+        out.writeInt(codificar(libro.getAutor(), primerCodigo, diccionario, cadenas));
+        out.writeInt(codificar(libro.getGenero(), primerCodigo, diccionario, cadenas));
+        out.writeInt(codificar(libro.getEditorial(), primerCodigo, diccionario, cadenas));
+        out.writeInt((int) libro.getFechaPublicacion().toEpochDay());
+        out.writeInt(precio.scale());
+        out.writeLong(sinEscala);
+        out.writeInt(libro.getEjemplares());
+    }
+
+    // ID -> {última fila, ejemplares de todas sus filas}
+    private static void agregarAlIndice(TreeMap<Integer, int[]> indice, Libro libro, int fila) {
+        int[] entrada = indice.computeIfAbsent(libro.getId(), id -> new int[2]);
+        entrada[0] = fila;
+        entrada[1] += libro.getEjemplares();
+    }
+
+    private static void escribirEntrada(DataOutputStream out, int id, int[] entrada) throws IOException {
+        out.writeInt(id);
+        out.writeInt(entrada[0]);
+        out.writeInt(entrada[1]);
+    }
+
+    private static void escribirCadenas(DataOutputStream out, int inicio, List<String> cadenas) throws IOException {
+        List<byte[]> codificadas = new ArrayList<>(cadenas.size());
+        int desplazamiento = inicio;
+        out.writeInt(desplazamiento);
+        for (String cadena : cadenas) {
+            byte[] bytes = cadena.getBytes(StandardCharsets.UTF_8);
+            codificadas.add(bytes);
+            desplazamiento += bytes.length;
+            out.writeInt(desplazamiento);
+        }
+        for (byte[] bytes : codificadas) {
+            out.write(bytes);
+        }
+    }
+
+    // Bytes [desde, hasta) de esta copia, de a bloques
+    private void copiar(DataOutputStream out, int desde, int hasta) throws IOException {
+        byte[] bloque = new byte[1 << 16];
+        for (int posicion = desde; posicion < hasta; posicion += bloque.length) {
+            int largo = Math.min(bloque.length, hasta - posicion);
+            datos.get(posicion, bloque, 0, largo);
+            out.write(bloque, 0, largo);
+        }
+    }
+
+    private static List<Long> generaciones(Path rutaCompras) throws IOException {
+        String base = nombreBase(rutaCompras);
+        List<Long> generaciones = new ArrayList<>();
+        try (Stream<Path> archivos = Files.list(rutaCompras.toAbsolutePath().getParent())) {
+            for (Path ruta : (Iterable<Path>) archivos::iterator) {
+                String nombre = ruta.getFileName().toString();
+                if (nombre.equals(base + EXTENSION)) {
+                    generaciones.add(0L);
+                } else if (nombre.startsWith(base + "-") && nombre.endsWith(EXTENSION)) {
+                    try {
+                        generaciones.add(Long.parseLong(nombre.substring(base.length() + 1, nombre.length() - EXTENSION.length())));
+                    } catch (NumberFormatException e) {
+                        // No es una copia binaria
+                    }
+                }
+            }
+        }
+        Collections.sort(generaciones);
+        return generaciones;
+    }
+
+    // Una copia todavía mapeada (p. ej. en Windows) no se puede borrar: queda para el próximo arranque
+    private static void borrar(Path ruta) {
+        try {
+            Files.deleteIfExists(ruta);
+        } catch (IOException e) {
+            // Se reintenta al abrir
+        }
+    }
+
+    public int getFilas() { return filas; }
+    public int getIdsUnicos() { return idsUnicos; }
+
+    public int idEnFila(int fila) {
+        return datos.getInt(TAMAÑO_ENCABEZADO + fila * TAMAÑO_FILA);
+    }
+
+    // Recorrido del índice (posición 0..getIdsUnicos()-1): ID y su fila vigente, sin buscar
+    public int idEnIndice(int posicion) {
+        return datos.getInt(inicioIndice + posicion * TAMAÑO_ENTRADA_INDICE);
+    }
+
+    public int filaEnIndice(int posicion) {
+        return datos.getInt(inicioIndice + posicion * TAMAÑO_ENTRADA_INDICE + 4);
+    }
+
+    public int ejemplaresEnIndice(int posicion) {
+        return datos.getInt(inicioIndice + posicion * TAMAÑO_ENTRADA_INDICE + 8);
+    }
+
+    // Código en la tabla de cadenas del campo de la fila; las filas que lo repiten comparten código
+    public int codigoEnFila(int fila, PaginaLibros.Campo campo) {
+        int base = TAMAÑO_ENCABEZADO + fila * TAMAÑO_FILA;
+        switch (campo) {
+            case TITULO: return datos.getInt(base + 4);
+            case AUTOR: return datos.getInt(base + 8);
+            default: return datos.getInt(base + 12);
+        }
+    }
+
+    // Búsqueda binaria en el índice; -1 si el ID no está
+    public int buscarFila(int id) {
+        int posicion = posicionEnIndice(id);
+        return posicion < 0 ? -1 : datos.getInt(posicion + 4);
+    }
+
+    // Ejemplares del ID sumando todas sus filas; 0 si el ID no está
+    public int ejemplaresTotales(int id) {
+        int posicion = posicionEnIndice(id);
+        return posicion < 0 ? 0 : datos.getInt(posicion + 8);
+    }
+
+    // Ejemplares por género recorriendo solo el índice: cada género se lee una vez por código
+    public Map<String, Long> ejemplaresPorGenero() {
+        Map<Integer, Long> porCodigo = new HashMap<>();
+        for (int i = 0; i < idsUnicos; i++) {
+            int posicion = inicioIndice + i * TAMAÑO_ENTRADA_INDICE;
+            int base = TAMAÑO_ENCABEZADO + datos.getInt(posicion + 4) * TAMAÑO_FILA;
+            porCodigo.merge(datos.getInt(base + 12), (long) datos.getInt(posicion + 8), Long::sum);
+        }
+        Map<String, Long> porGenero = new HashMap<>();
+        for (Map.Entry<Integer, Long> entrada : porCodigo.entrySet()) {
+            porGenero.merge(cadena(entrada.getKey()), entrada.getValue(), Long::sum);
+        }
+        return porGenero;
+    }
+
+    private int posicionEnIndice(int id) {
+        int bajo = 0;
+        int alto = idsUnicos - 1;
+        while (bajo <= alto) {
+            int medio = (bajo + alto) >>> 1;
+            int posicion = inicioIndice + medio * TAMAÑO_ENTRADA_INDICE;
+            int actual = datos.getInt(posicion);
+            if (actual < id) {
+                bajo = medio + 1;
+            } else if (actual > id) {
+                alto = medio - 1;
+            } else {
+                return posicion;
+            }
+        }
+        return -1;
+    }
+
+    public Libro libro(int fila) {
+        int base = TAMAÑO_ENCABEZADO + fila * TAMAÑO_FILA;
+        return new Libro(
+                datos.getInt(base),
+                cadena(datos.getInt(base + 4)),
+                cadena(datos.getInt(base + 8)),
+                cadena(datos.getInt(base + 12)),
+                LocalDate.ofEpochDay(datos.getInt(base + 20)),
+                cadena(datos.getInt(base + 16)),
+                BigDecimal.valueOf(datos.getLong(base + 28), datos.getInt(base + 24)),
+                datos.getInt(base + 36)
+        );
+    }
+
+    String cadena(int indice) {
+        int desde = datos.getInt(inicioDesplazamientos + indice * 4);
+        int hasta = datos.getInt(inicioDesplazamientos + (indice + 1) * 4);
+        byte[] bytes = new byte[hasta - desde];
+        datos.get(inicioCadenas + desde, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int codificar(String valor, int primerCodigo, Map<String, Integer> diccionario, List<String> cadenas) {
+        return diccionario.computeIfAbsent(valor, v -> {
+            cadenas.add(v);
+            return primerCodigo + cadenas.size() - 1;
+        });
+    }
+
+    private static String nombreBase(Path ruta) {
+        String nombre = ruta.getFileName().toString();
+        int punto = nombre.lastIndexOf('.');
+        return punto > 0 ? nombre.substring(0, punto) : nombre;
+    }
+}
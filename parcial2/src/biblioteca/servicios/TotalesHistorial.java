@@ -0,0 +1,127 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Prestamo;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// Multas y contadores de circulación acumulados de todas las devoluciones que ya están en
+// segmentos del historial. Se guardan (Historial/Totales-NNNNNN.bin) cada vez que se escribe un
+// segmento, así al arrancar no hay que releer los segmentos: basta con cargar estos totales y
+// sumar lo que quedó en memoria (ver HistorialSegmentado.abrir).
+public class TotalesHistorial {
+    private static final int MAGICO = 0x48544f54; // "HTOT"
+    private static final int VERSION = 1;
+
+    private final Map<String, Long> multasPorUsuario = new HashMap<>();
+    private final Map<Integer, Long> multasPorDia = new HashMap<>();
+    private final Map<Integer, Long> prestamosPorLibro = new HashMap<>();
+    private final Map<String, Long> prestamosPorGenero = new HashMap<>();
+    private final Map<String, Long> prestamosPorUsuario = new HashMap<>();
+    private long devoluciones;
+
+    // Mismos criterios que MotorMultas.agregar y EstadisticasCirculacion.cargarDevoluciones
+    public void agregar(Collection<Prestamo> prestamos) {
+        for (Prestamo prestamo : prestamos) {
+            devoluciones++;
+            String genero = prestamo.getLibro().getGenero() == null ? "" : prestamo.getLibro().getGenero();
+            prestamosPorLibro.merge(prestamo.getLibro().getId(), 1L, Long::sum);
+            prestamosPorGenero.merge(genero, 1L, Long::sum);
+            prestamosPorUsuario.merge(prestamo.getUsuarioId(), 1L, Long::sum);
+            long multa = prestamo.getMultaCentavos();
+            if (multa > 0 && prestamo.getFechaDevolucion() != null) {
+                multasPorUsuario.merge(prestamo.getUsuarioId(), multa, Long::sum);
+                multasPorDia.merge((int) prestamo.getFechaDevolucion().toEpochDay(), multa, Long::sum);
+            }
+        }
+    }
+
+    public TotalesHistorial copia() {
+        TotalesHistorial copia = new TotalesHistorial();
+        copia.multasPorUsuario.putAll(multasPorUsuario);
+        copia.multasPorDia.putAll(multasPorDia);
+        copia.prestamosPorLibro.putAll(prestamosPorLibro);
+        copia.prestamosPorGenero.putAll(prestamosPorGenero);
+        copia.prestamosPorUsuario.putAll(prestamosPorUsuario);
+        copia.devoluciones = devoluciones;
+        return copia;
+    }
+
+    public Map<String, Long> getMultasPorUsuario() { return multasPorUsuario; }
+    public Map<Integer, Long> getMultasPorDia() { return multasPorDia; }
+    public Map<Integer, Long> getPrestamosPorLibro() { return prestamosPorLibro; }
+    public Map<String, Long> getPrestamosPorGenero() { return prestamosPorGenero; }
+    public Map<String, Long> getPrestamosPorUsuario() { return prestamosPorUsuario; }
+    public long getDevoluciones() { return devoluciones; }
+
+    // Guarda los totales que cubren hasta el segmento indicado (temporal + rename)
+    void guardar(Path ruta, long ultimoSegmento) throws IOException {
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 1 << 16))) {
+            out.writeInt(MAGICO);
+            out.writeInt(VERSION);
+            out.writeLong(ultimoSegmento);
+            out.writeLong(devoluciones);
+            escribirPorTexto(out, multasPorUsuario);
+            escribirPorNumero(out, multasPorDia);
+            escribirPorNumero(out, prestamosPorLibro);
+            escribirPorTexto(out, prestamosPorGenero);
+            escribirPorTexto(out, prestamosPorUsuario);
+        }
+        try (FileChannel archivo = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+            archivo.force(true);
+        }
+        Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // null si el archivo no es válido o no cubre exactamente hasta ese segmento
+    static TotalesHistorial leer(Path ruta, long ultimoSegmento) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(ruta), 1 << 16))) {
+            if (in.readInt() != MAGICO || in.readInt() != VERSION || in.readLong() != ultimoSegmento) return null;
+            TotalesHistorial totales = new TotalesHistorial();
+            totales.devoluciones = in.readLong();
+            leerPorTexto(in, totales.multasPorUsuario);
+            leerPorNumero(in, totales.multasPorDia);
+            leerPorNumero(in, totales.prestamosPorLibro);
+            leerPorTexto(in, totales.prestamosPorGenero);
+            leerPorTexto(in, totales.prestamosPorUsuario);
+            return totales;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void escribirPorTexto(DataOutputStream out, Map<String, Long> valores) throws IOException {
+        out.writeInt(valores.size());
+        for (Map.Entry<String, Long> entrada : valores.entrySet()) {
+            out.writeUTF(entrada.getKey());
+            out.writeLong(entrada.getValue());
+        }
+    }
+
+    private static void escribirPorNumero(DataOutputStream out, Map<Integer, Long> valores) throws IOException {
+        out.writeInt(valores.size());
+        for (Map.Entry<Integer, Long> entrada : valores.entrySet()) {
+            out.writeInt(entrada.getKey());
+            out.writeLong(entrada.getValue());
+        }
+    }
+
+    private static void leerPorTexto(DataInputStream in, Map<String, Long> valores) throws IOException {
+        int cantidad = in.readInt();
+        for (int i = 0; i < cantidad; i++) {
+            valores.put(in.readUTF(), in.readLong());
+        }
+    }
+
+    private static void leerPorNumero(DataInputStream in, Map<Integer, Long> valores) throws IOException {
+        int cantidad = in.readInt();
+        for (int i = 0; i < cantidad; i++) {
+            valores.put(in.readInt(), in.readLong());
+        }
+    }
+}
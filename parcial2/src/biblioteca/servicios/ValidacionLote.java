@@ -0,0 +1,81 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.SolicitudLibro;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Resultado de validar un lote de solicitudes: el estado de cada solicitud (en el orden del lote)
+// y, para las duplicadas, el ID del libro que repiten (del catálogo o de una solicitud anterior
+// del mismo lote). Las válidas cuyo título se parece al de otro libro (posible otro tomo o
+// edición) llevan ese ID como aviso. Las líneas que ni siquiera se pudieron leer quedan en el
+// resumen del archivo.
+public class ValidacionLote {
+
+    public enum Estado { VALIDA, DUPLICADA_CATALOGO, DUPLICADA_LOTE, MALFORMADA }
+
+    public static final int SIN_REFERENCIA = -1;
+
+    private final List<SolicitudLibro> solicitudes;
+    private final Estado[] estados;
+    private final int[] referencias;
+    private final int[] parecidos;
+    private final long conParecido;
+    private final ResumenErrores lineasConError;
+    private final long[] cantidades = new long[Estado.values().length];
+    private final long nanos;
+
+    ValidacionLote(List<SolicitudLibro> solicitudes, Estado[] estados, int[] referencias, int[] parecidos,
+                   ResumenErrores lineasConError, long nanos) {
+        this.solicitudes = solicitudes;
+        this.estados = estados;
+        this.referencias = referencias;
+        this.parecidos = parecidos;
+        long avisos = 0;
+        for (int i = 0; i < estados.length; i++) {
+            if (estados[i] == Estado.VALIDA && parecidos[i] != SIN_REFERENCIA) avisos++;
+        }
+        this.conParecido = avisos;
+        this.lineasConError = lineasConError;
+        this.nanos = nanos;
+        for (Estado estado : estados) {
+            cantidades[estado.ordinal()]++;
+        }
+        cantidades[Estado.MALFORMADA.ordinal()] += lineasConError.getLineasConError();
+    }
+
+    public int tamaño() { return solicitudes.size(); }
+    public SolicitudLibro getSolicitud(int i) { return solicitudes.get(i); }
+    public Estado getEstado(int i) { return estados[i]; }
+    // ID del libro repetido; SIN_REFERENCIA para las válidas y las malformadas
+    public int getReferencia(int i) { return referencias[i]; }
+    // Solo para las válidas: ID de un libro con título parecido, o SIN_REFERENCIA
+    public int getParecido(int i) { return estados[i] == Estado.VALIDA ? parecidos[i] : SIN_REFERENCIA; }
+    public long contarConTituloParecido() { return conParecido; }
+    public ResumenErrores getLineasConError() { return lineasConError; }
+
+    // Incluye las líneas del archivo que no se pudieron leer
+    public long contar(Estado estado) {
+        return cantidades[estado.ordinal()];
+    }
+
+    public List<SolicitudLibro> getValidas() {
+        return getPorEstado(Estado.VALIDA);
+    }
+
+    public List<SolicitudLibro> getPorEstado(Estado estado) {
+        List<SolicitudLibro> resultado = new ArrayList<>();
+        for (int i = 0; i < estados.length; i++) {
+            if (estados[i] == estado) resultado.add(solicitudes.get(i));
+        }
+        return Collections.unmodifiableList(resultado);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d solicitudes: %d válidas (%d con título parecido a otro libro), %d duplicadas del catálogo, %d duplicadas en el lote, %d malformadas (%d ms)",
+                solicitudes.size() + lineasConError.getLineasConError(), contar(Estado.VALIDA), conParecido,
+                contar(Estado.DUPLICADA_CATALOGO), contar(Estado.DUPLICADA_LOTE), contar(Estado.MALFORMADA), nanos / 1_000_000);
+    }
+}
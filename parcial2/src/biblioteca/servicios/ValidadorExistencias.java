@@ -2,100 +2,267 @@ package biblioteca.servicios;
 
 import biblioteca.entidades.Libro;
 import biblioteca.entidades.SolicitudLibro;
+import biblioteca.metricas.MetricasBiblioteca;
+import biblioteca.metricas.Operacion;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ValidadorExistencias {
 
+    private final LectorArchivoLibros lector = new LectorArchivoLibros();
+    private ResumenErrores ultimoResumen = new ResumenErrores();
+
     // Método genérico para leer libros de un archivo (Compras o Solicitudes)
-    private List<Libro> leerLibrosDesdeArchivo(Path rutaArchivo, String delimitador) throws IOException {
-        List<Libro> libros = new ArrayList<>();
-        try (BufferedReader reader = Files.newBufferedReader(rutaArchivo)) {
-            String linea;
-            // Omitir encabezados si los hubiera
-            reader.readLine();
-            while ((linea = reader.readLine()) != null) {
-                String[] datos = linea.split(delimitador);
-                if (datos.length >= 7) {
-                    try {
-                        libros.add(new Libro(
-                                Integer.parseInt(datos[0].trim()),
-                                datos[1].trim(),
-                                datos[2].trim(),
-                                datos[3].trim(),
-                                datos[4].trim(),
-                                datos[5].trim(),
-                                new BigDecimal(datos[6].trim())
-                        ));
-                    } catch (Exception e) {
-                        System.err.println("Error al procesar línea (se omite): " + linea);
-                    }
-                }
-            }
+    private <T extends Libro> List<T> leerLibrosDesdeArchivo(Path rutaArchivo, LectorArchivoLibros.FabricaLibro<T> fabrica) throws IOException {
+        MetricasBiblioteca metricas = MetricasBiblioteca.getInstancia();
+        long inicio = metricas.iniciar();
+        LectorArchivoLibros.Resultado<T> resultado;
+        try {
+            resultado = lector.leer(rutaArchivo, fabrica);
+        } catch (IOException e) {
+            metricas.registrar(Operacion.CARGA_ARCHIVO, inicio, false);
+            throw e;
+        }
+        metricas.registrar(Operacion.CARGA_ARCHIVO, inicio, true);
+        ultimoResumen = resultado.getResumen();
+        informarErrores(rutaArchivo);
+        return resultado.getLibros();
+    }
+
+    // Un único resumen por archivo en lugar de un mensaje por línea
+    private void informarErrores(Path rutaArchivo) {
+        if (ultimoResumen.tieneErrores()) {
+            System.err.printf("Se omitieron %d líneas con error en '%s' (%s).%n",
+                    ultimoResumen.getLineasConError(), rutaArchivo.getFileName(), ultimoResumen);
         }
-        return libros;
     }
 
     public List<SolicitudLibro> cargarSolicitudes(Path rutaArchivo) throws IOException {
-        List<SolicitudLibro> solicitudes = new ArrayList<>();
-        try (BufferedReader reader = Files.newBufferedReader(rutaArchivo)) {
-            String linea;
-
-            // LÍNEA AÑADIDA PARA SOLUCIONAR EL ERROR
-            // Esto lee y descarta la primera línea (el encabezado).
-            reader.readLine();
-
-            while ((linea = reader.readLine()) != null) {
-                String[] datos = linea.split(";");
-                if (datos.length >= 7) {
-                    try {
-                        solicitudes.add(new SolicitudLibro(
-                                Integer.parseInt(datos[0].trim()),
-                                datos[1].trim(),
-                                datos[2].trim(),
-                                datos[3].trim(),
-                                datos[4].trim(),
-                                datos[5].trim(),
-                                new BigDecimal(datos[6].trim())
-                        ));
-                    } catch (Exception e) {
-                        System.err.println("Error al procesar línea de solicitud (se omite): " + linea);
+        return leerLibrosDesdeArchivo(rutaArchivo, SolicitudLibro::new);
+    }
+
+    // Solicitudes por lotes, sin cargar el archivo completo en memoria; solo las de los primeros 'hasta' bytes
+    public ResumenErrores cargarSolicitudesPorLotes(Path rutaArchivo, int tamañoLote, long hasta,
+                                                    LectorArchivoLibros.ConsumidorLote<SolicitudLibro> consumidor) throws IOException {
+        MetricasBiblioteca metricas = MetricasBiblioteca.getInstancia();
+        long inicio = metricas.iniciar();
+        try {
+            ultimoResumen = lector.leerPorLotes(rutaArchivo, SolicitudLibro::new, tamañoLote, hasta, consumidor);
+        } catch (IOException e) {
+            metricas.registrar(Operacion.CARGA_ARCHIVO, inicio, false);
+            throw e;
+        }
+        metricas.registrar(Operacion.CARGA_ARCHIVO, inicio, true);
+        informarErrores(rutaArchivo);
+        return ultimoResumen;
+    }
+
+    public List<Libro> cargarCompras(Path rutaArchivo) throws IOException {
+        // Reutiliza el método genérico de lectura
+        return leerLibrosDesdeArchivo(rutaArchivo, Libro::new);
+    }
+
+    // Compras guardadas por columnas en el almacén (modo compacto); cada libro es una vista de su fila
+    public List<LibroCompacto> cargarComprasCompactas(Path rutaArchivo, AlmacenColumnar almacen) throws IOException {
+        return leerLibrosDesdeArchivo(rutaArchivo, almacen::agregar);
+    }
+
+    // Todos los segmentos de la partición, en paralelo (fork-join, un segmento por tarea) y en el
+    // orden del manifiesto. Cada segmento informa sus propias líneas con error.
+    public List<Libro> cargarComprasParticionadas(CatalogoParticionado particion) throws IOException {
+        MetricasBiblioteca metricas = MetricasBiblioteca.getInstancia();
+        long inicio = metricas.iniciar();
+        List<Path> segmentos = particion.getSegmentos();
+        CargaSegmentos carga = new CargaSegmentos(segmentos, 0, segmentos.size());
+        List<Libro> libros;
+        try {
+            libros = ForkJoinPool.commonPool().invoke(carga);
+        } catch (UncheckedIOException e) {
+            metricas.registrar(Operacion.CARGA_ARCHIVO, inicio, false);
+            throw e.getCause();
+        }
+        metricas.registrar(Operacion.CARGA_ARCHIVO, inicio, true);
+        ultimoResumen = carga.resumen;
+        return libros;
+    }
+
+    private static final class CargaSegmentos extends RecursiveTask<List<Libro>> {
+        private static final long serialVersionUID = 1L;
+
+        // La tarea nunca se serializa: solo se ejecuta en el pool
+        private final transient List<Path> segmentos;
+        private final int desde;
+        private final int hasta;
+        private transient ResumenErrores resumen;
+
+        CargaSegmentos(List<Path> segmentos, int desde, int hasta) {
+            this.segmentos = segmentos;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected List<Libro> compute() {
+            if (hasta - desde <= 1) {
+                resumen = new ResumenErrores();
+                if (desde == hasta) return new ArrayList<>();
+                Path segmento = segmentos.get(desde);
+                try {
+                    LectorArchivoLibros.Resultado<Libro> resultado = new LectorArchivoLibros().leer(segmento, Libro::new);
+                    resumen = resultado.getResumen();
+                    if (resumen.tieneErrores()) {
+                        System.err.printf("Se omitieron %d líneas con error en '%s' (%s).%n",
+                                resumen.getLineasConError(), segmento.getFileName(), resumen);
                     }
+                    return resultado.getLibros();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
             }
+            int medio = (desde + hasta) >>> 1;
+            CargaSegmentos izquierda = new CargaSegmentos(segmentos, desde, medio);
+            CargaSegmentos derecha = new CargaSegmentos(segmentos, medio, hasta);
+            izquierda.fork();
+            List<Libro> libros = derecha.compute();
+            List<Libro> primeros = izquierda.join();
+            List<Libro> todos = new ArrayList<>(primeros.size() + libros.size());
+            todos.addAll(primeros);
+            todos.addAll(libros);
+            // Los números de línea de las muestras son los de cada segmento
+            resumen = new ResumenErrores();
+            resumen.combinar(izquierda.resumen, 0);
+            resumen.combinar(derecha.resumen, 0);
+            return todos;
         }
-        return solicitudes;
     }
 
-    public List<Libro> cargarCompras(Path rutaArchivo) throws IOException {
-        // Reutiliza el método genérico de lectura
-        return leerLibrosDesdeArchivo(rutaArchivo, ";");
+    // Resumen de la última carga, con una muestra de las líneas omitidas
+    public ResumenErrores getUltimoResumen() {
+        return ultimoResumen;
     }
 
     public List<SolicitudLibro> obtenerSolicitudesValidas(List<SolicitudLibro> solicitudes, List<Libro> compras) {
-        // Usamos Sets para una búsqueda eficiente de duplicados (O(1) en promedio)
+        ValidacionLote validacion = validarLote(solicitudes, compras);
+        // Solo el resumen: con lotes grandes una línea por solicitud domina el tiempo
+        System.out.println("\nValidación de solicitudes: " + validacion);
+        return validacion.getValidas();
+    }
+
+    // Consulta al catálogo durante la validación: si el ID está comprado y el título comprado
+    // igual o parecido al de la solicitud (null si no hay)
+    private interface Catalogo {
+        boolean contieneId(int id);
+        IndiceTitulos.Coincidencia tituloSimilar(SolicitudLibro solicitud);
+    }
+
+    public ValidacionLote validarLote(List<SolicitudLibro> solicitudes, List<? extends Libro> compras) {
+        // Sets e índice de títulos normalizados para una búsqueda eficiente de duplicados
         Set<Integer> idsExistentes = compras.stream().map(Libro::getId).collect(Collectors.toSet());
-        Set<String> titulosExistentes = compras.stream().map(libro -> libro.getTitulo().toLowerCase()).collect(Collectors.toSet());
+        IndiceTitulos titulosExistentes = new IndiceTitulos();
+        for (Libro libro : compras) {
+            titulosExistentes.agregar(libro);
+        }
+        return validarLote(solicitudes, new ResumenErrores(), new Catalogo() {
+            @Override
+            public boolean contieneId(int id) {
+                return idsExistentes.contains(id);
+            }
+
+            @Override
+            public IndiceTitulos.Coincidencia tituloSimilar(SolicitudLibro solicitud) {
+                return titulosExistentes.buscarSimilarNormalizado(solicitud.getTituloNormalizado(), IndiceDuplicados.UMBRAL_SIMILITUD);
+            }
+        });
+    }
+
+    // Contra el índice de compras ya construido; no debe modificarse mientras se valida
+    public ValidacionLote validarLote(List<SolicitudLibro> solicitudes, IndiceDuplicados indice) {
+        return validarLote(solicitudes, new ResumenErrores(), duplicadoEnIndice(indice));
+    }
+
+    // Lee el archivo completo y valida todas sus solicitudes; las líneas que no se pueden leer cuentan como malformadas
+    public ValidacionLote validarSolicitudes(Path rutaSolicitudes, IndiceDuplicados indice) throws IOException {
+        List<SolicitudLibro> solicitudes = cargarSolicitudes(rutaSolicitudes);
+        return validarLote(solicitudes, ultimoResumen, duplicadoEnIndice(indice));
+    }
+
+    private static Catalogo duplicadoEnIndice(IndiceDuplicados indice) {
+        return new Catalogo() {
+            @Override
+            public boolean contieneId(int id) {
+                return indice.contieneId(id);
+            }
+
+            @Override
+            public IndiceTitulos.Coincidencia tituloSimilar(SolicitudLibro solicitud) {
+                return indice.buscarTituloSimilar(solicitud);
+            }
+        };
+    }
+
+    // La búsqueda en el catálogo (la parte cara) va en paralelo sobre todo el lote. Después, en
+    // el orden del lote, la primera solicitud de cada libro queda válida y las que la repiten
+    // (mismo ID o mismo título normalizado) se marcan como duplicadas en el lote. Un título solo
+    // parecido (p. ej. otro tomo) no la invalida: queda anotado como aviso.
+    private ValidacionLote validarLote(List<SolicitudLibro> solicitudes, ResumenErrores lineasConError, Catalogo catalogo) {
+        MetricasBiblioteca metricas = MetricasBiblioteca.getInstancia();
+        long inicio = metricas.iniciar();
+        long inicioNanos = System.nanoTime();
+        SolicitudLibro[] lote = solicitudes.toArray(new SolicitudLibro[0]);
+        ValidacionLote.Estado[] estados = new ValidacionLote.Estado[lote.length];
+        int[] referencias = new int[lote.length];
+        int[] parecidos = new int[lote.length];
+
+        IntStream.range(0, lote.length).parallel().forEach(i -> {
+            referencias[i] = ValidacionLote.SIN_REFERENCIA;
+            parecidos[i] = ValidacionLote.SIN_REFERENCIA;
+            if (lote[i].getTituloNormalizado().isEmpty()) {
+                // Sin letras ni dígitos en el título no hay forma de compararla con nada
+                estados[i] = ValidacionLote.Estado.MALFORMADA;
+                return;
+            }
+            if (catalogo.contieneId(lote[i].getId())) {
+                referencias[i] = lote[i].getId();
+            } else {
+                IndiceTitulos.Coincidencia similar = catalogo.tituloSimilar(lote[i]);
+                if (similar != null && similar.esExacta()) {
+                    referencias[i] = similar.getLibroId();
+                } else if (similar != null) {
+                    parecidos[i] = similar.getLibroId();
+                }
+            }
+            estados[i] = referencias[i] == ValidacionLote.SIN_REFERENCIA ? null : ValidacionLote.Estado.DUPLICADA_CATALOGO;
+        });
 
-        List<SolicitudLibro> solicitudesValidas = new ArrayList<>();
-        System.out.println("\n--- Validación de Solicitudes ---");
-        for (SolicitudLibro solicitud : solicitudes) {
-            if (idsExistentes.contains(solicitud.getId()) || titulosExistentes.contains(solicitud.getTitulo().toLowerCase())) {
-                System.out.printf("DUPLICADO: La solicitud '%s' (ID: %d) ya existe en el catálogo de compras.%n", solicitud.getTitulo(), solicitud.getId());
+        Set<Integer> idsDelLote = new HashSet<>();
+        IndiceTitulos titulosDelLote = new IndiceTitulos();
+        for (int i = 0; i < lote.length; i++) {
+            if (estados[i] != null) continue;
+            SolicitudLibro solicitud = lote[i];
+            IndiceTitulos.Coincidencia similar = idsDelLote.contains(solicitud.getId()) ? null
+                    : titulosDelLote.buscarSimilarNormalizado(solicitud.getTituloNormalizado(), IndiceDuplicados.UMBRAL_SIMILITUD);
+            if (idsDelLote.contains(solicitud.getId()) || (similar != null && similar.esExacta())) {
+                estados[i] = ValidacionLote.Estado.DUPLICADA_LOTE;
+                referencias[i] = similar == null ? solicitud.getId() : similar.getLibroId();
             } else {
-                System.out.printf("VÁLIDA: La solicitud '%s' (ID: %d) es nueva.%n", solicitud.getTitulo(), solicitud.getId());
-                solicitudesValidas.add(solicitud);
+                estados[i] = ValidacionLote.Estado.VALIDA;
+                if (similar != null && parecidos[i] == ValidacionLote.SIN_REFERENCIA) parecidos[i] = similar.getLibroId();
+                idsDelLote.add(solicitud.getId());
+                titulosDelLote.agregar(solicitud);
             }
         }
-        System.out.println("---------------------------------");
-        return solicitudesValidas;
+        metricas.registrar(Operacion.VALIDACION_LOTE, inicio, true);
+        return new ValidacionLote(Arrays.asList(lote), estados, referencias, parecidos, lineasConError, System.nanoTime() - inicioNanos);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,204 @@
+package biblioteca.servicios;
+
+import biblioteca.entidades.Libro;
+import biblioteca.entidades.SolicitudLibro;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Sigue Compras.txt y Solicitudes.txt mientras el sistema está en marcha. Por cada archivo guarda
+// hasta dónde se leyó y, cuando otra herramienta le añade líneas, lee solo los bytes nuevos y
+// los entrega al servicio. Los cambios se agrupan: se espera a que el archivo deje de cambiar
+// durante ESPERA_MS (como mucho ESPERA_MAXIMA_MS) antes de leer. Solo se leen líneas terminadas
+// en salto de línea: la última, si no lo tiene, puede estar a medio escribir y espera a la
+// siguiente lectura. Una ruta null no se sigue.
+public class VigilanteArchivos implements Closeable {
+    private static final long ESPERA_MS = 200;
+    private static final long ESPERA_MAXIMA_MS = 2_000;
+
+    public interface Receptor<T extends Libro> {
+        void recibir(List<T> nuevos) throws IOException;
+    }
+
+    public interface Escritura<R> {
+        R ejecutar() throws IOException;
+    }
+
+    private static final class Seguimiento<T extends Libro> {
+        final Path ruta;
+        final LectorArchivoLibros.FabricaLibro<T> fabrica;
+        final Receptor<T> receptor;
+        // Primer byte aún no leído; se protege con el propio seguimiento
+        long desplazamiento;
+
+        Seguimiento(Path ruta, LectorArchivoLibros.FabricaLibro<T> fabrica, Receptor<T> receptor) throws IOException {
+            this.ruta = ruta;
+            this.fabrica = fabrica;
+            this.receptor = receptor;
+            // Lo que ya hay en el archivo se cargó al arrancar
+            this.desplazamiento = Files.exists(ruta) ? Files.size(ruta) : 0;
+        }
+    }
+
+    private final LectorArchivoLibros lector = new LectorArchivoLibros();
+    private final WatchService observador;
+    private final Map<Path, Seguimiento<?>> seguimientos = new HashMap<>();
+    private final Thread hilo;
+
+    public VigilanteArchivos(Path rutaCompras, Receptor<Libro> compras,
+                             Path rutaSolicitudes, Receptor<SolicitudLibro> solicitudes) throws IOException {
+        observador = FileSystems.getDefault().newWatchService();
+        if (rutaCompras != null) {
+            seguir(new Seguimiento<>(rutaCompras.toAbsolutePath(), Libro::new, compras));
+        }
+        if (rutaSolicitudes != null) {
+            seguir(new Seguimiento<>(rutaSolicitudes.toAbsolutePath(), SolicitudLibro::new, solicitudes));
+        }
+        hilo = new Thread(this::vigilar, "vigilante-archivos");
+        hilo.setDaemon(true);
+    }
+
+    private void seguir(Seguimiento<?> seguimiento) throws IOException {
+        Path carpeta = seguimiento.ruta.getParent();
+        // Una sola clave por carpeta aunque haya varios archivos en ella
+        if (seguimientos.keySet().stream().noneMatch(ruta -> ruta.getParent().equals(carpeta))) {
+            carpeta.register(observador, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        seguimientos.put(seguimiento.ruta, seguimiento);
+    }
+
+    public void iniciar() {
+        hilo.start();
+    }
+
+    // Escritura del propio sistema sobre un archivo seguido (compra, nueva solicitud): primero se
+    // entregan las líneas ajenas pendientes y después de escribir se da por leído todo el archivo,
+    // así el vigilante no vuelve a cargar lo que escribió el servicio. Se llama con el bloqueo que
+    // toman los receptores ya adquirido (en BibliotecaService, el de los archivos).
+    public <R> R escribir(Path ruta, Escritura<R> escritura) throws IOException {
+        Seguimiento<?> seguimiento = seguimientos.get(ruta.toAbsolutePath());
+        if (seguimiento == null) return escritura.ejecutar();
+        synchronized (seguimiento) {
+            ponerseAlDia(seguimiento);
+            try {
+                return escritura.ejecutar();
+            } finally {
+                seguimiento.desplazamiento = Files.exists(ruta) ? Files.size(ruta) : 0;
+            }
+        }
+    }
+
+    private void vigilar() {
+        Set<Seguimiento<?>> pendientes = new LinkedHashSet<>();
+        long primerCambio = 0;
+        try {
+            while (true) {
+                WatchKey clave = pendientes.isEmpty()
+                        ? observador.take()
+                        : observador.poll(ESPERA_MS, TimeUnit.MILLISECONDS);
+                if (clave != null) {
+                    Path carpeta = (Path) clave.watchable();
+                    for (WatchEvent<?> evento : clave.pollEvents()) {
+                        if (evento.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            pendientes.addAll(seguimientos.values());
+                            continue;
+                        }
+                        Seguimiento<?> seguimiento = seguimientos.get(carpeta.resolve((Path) evento.context()));
+                        if (seguimiento != null) pendientes.add(seguimiento);
+                    }
+                    clave.reset();
+                    if (pendientes.isEmpty()) continue;
+                    if (primerCambio == 0) primerCambio = System.nanoTime();
+                    // Sigue llegando escritura: se espera un poco más, salvo que ya se esperó bastante
+                    if (System.nanoTime() - primerCambio < TimeUnit.MILLISECONDS.toNanos(ESPERA_MAXIMA_MS)) continue;
+                }
+                for (Seguimiento<?> seguimiento : pendientes) {
+                    procesar(seguimiento);
+                }
+                pendientes.clear();
+                primerCambio = 0;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // close(): fin del seguimiento
+        }
+    }
+
+    // Se entrega fuera del bloqueo del seguimiento: el receptor toma los bloqueos del servicio
+    // y estos se adquieren siempre antes que el del seguimiento (ver escribir)
+    private <T extends Libro> void procesar(Seguimiento<T> seguimiento) {
+        try {
+            List<T> nuevos;
+            synchronized (seguimiento) {
+                nuevos = leerNuevos(seguimiento);
+            }
+            entregar(seguimiento, nuevos);
+        } catch (IOException e) {
+            System.err.println("No se pudieron leer los cambios de " + seguimiento.ruta.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private <T extends Libro> void ponerseAlDia(Seguimiento<T> seguimiento) throws IOException {
+        entregar(seguimiento, leerNuevos(seguimiento));
+    }
+
+    private static <T extends Libro> void entregar(Seguimiento<T> seguimiento, List<T> nuevos) throws IOException {
+        if (!nuevos.isEmpty()) {
+            seguimiento.receptor.recibir(nuevos);
+        }
+    }
+
+    // Libros de las líneas añadidas desde la última lectura; se llama con el seguimiento bloqueado
+    private <T extends Libro> List<T> leerNuevos(Seguimiento<T> seguimiento) throws IOException {
+        if (!Files.exists(seguimiento.ruta)) return Collections.emptyList();
+        long tamaño = Files.size(seguimiento.ruta);
+        if (tamaño < seguimiento.desplazamiento) {
+            // Otra herramienta reemplazó o recortó el archivo: se sigue desde el final actual
+            System.err.printf("%s se reemplazó fuera del sistema; solo se leerán las líneas que se añadan desde ahora.%n",
+                    seguimiento.ruta.getFileName());
+            seguimiento.desplazamiento = tamaño;
+            return Collections.emptyList();
+        }
+        if (tamaño == seguimiento.desplazamiento) return Collections.emptyList();
+
+        // Hasta el último salto de línea; lo que sigue queda para la próxima lectura
+        long fin = finUltimaLinea(seguimiento.ruta, seguimiento.desplazamiento, tamaño);
+        if (fin == seguimiento.desplazamiento) return Collections.emptyList();
+        LectorArchivoLibros.Resultado<T> resultado = lector.leerRango(seguimiento.ruta, seguimiento.desplazamiento, fin, seguimiento.fabrica);
+        seguimiento.desplazamiento = fin;
+        if (resultado.getResumen().tieneErrores()) {
+            System.err.printf("Se omitieron %d líneas nuevas con error en '%s' (%s).%n",
+                    resultado.getResumen().getLineasConError(), seguimiento.ruta.getFileName(), resultado.getResumen());
+        }
+        return resultado.getLibros();
+    }
+
+    // Posición siguiente al último '\n' entre desde y hasta; desde si no hay ninguno
+    private static long finUltimaLinea(Path ruta, long desde, long hasta) throws IOException {
+        ByteBuffer bloque = ByteBuffer.allocate(8192);
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            long posicion = hasta;
+            while (posicion > desde) {
+                int largo = (int) Math.min(bloque.capacity(), posicion - desde);
+                bloque.clear().limit(largo);
+                long inicio = posicion - largo;
+                canal.read(bloque, inicio);
+                for (int i = bloque.position() - 1; i >= 0; i--) {
+                    if (bloque.get(i) == '\n') return inicio + i + 1;
+                }
+                posicion = inicio;
+            }
+        }
+        return desde;
+    }
+
+    @Override
+    public void close() throws IOException {
+        observador.close();
+        hilo.interrupt();
+    }
+}